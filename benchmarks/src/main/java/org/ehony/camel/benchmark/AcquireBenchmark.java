@@ -0,0 +1,66 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.ehony.camel.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of obtaining a lock which record does not exist yet: a single
+ * merge statement versus update followed by insert.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AcquireBenchmark
+{
+
+    /**
+     * Whether lock is obtained with a single merge statement.
+     */
+    @Param({"true", "false"})
+    public boolean atomic;
+
+    private H2Locks locks;
+    private ExpirableDatabaseLock lock;
+
+    @Setup
+    public void setUp() throws Exception {
+        locks = new H2Locks("acquire");
+        lock = new H2ExpirableLock(locks.getDataSource(), "benchmark") {
+
+            @Override
+            protected String getAcquireQuery() {
+                return atomic ? super.getAcquireQuery() : null;
+            }
+        };
+        lock.setRetryCount(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        locks.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void release() throws Exception {
+        while (lock.getHoldCount() > 0) {
+            lock.unlock();
+        }
+        locks.clear();
+    }
+
+    @Benchmark
+    public boolean acquire() {
+        return lock.tryLock();
+    }
+}
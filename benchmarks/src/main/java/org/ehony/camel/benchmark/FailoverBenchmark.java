@@ -0,0 +1,103 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.ehony.camel.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.sleep;
+
+/**
+ * Time for a standby {@link CamelContext} to start the route after the
+ * leading one releases the lock and shuts down.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class FailoverBenchmark
+{
+
+    private static final String LOCK_ID = "failover";
+
+    /**
+     * Interval between lock checks of route policies.
+     */
+    @Param({"100", "1000"})
+    public long delay;
+
+    private H2Locks locks;
+    private LockScheduler scheduler;
+    private Node leader, standby;
+
+    /**
+     * Camel context with a single route guarded by the lock.
+     */
+    private class Node {
+
+        final CamelContext context = new DefaultCamelContext();
+        final SerialAccessRoutePolicy policy;
+        final String routeId;
+
+        Node(final String name) throws Exception {
+            ExpirableDatabaseLock lock = locks.createLock(LOCK_ID);
+            lock.setRetryCount(0);
+            policy = new SerialAccessRoutePolicy(lock, scheduler);
+            policy.setLockObtainDelay(delay);
+            routeId = "route on " + name;
+            context.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() {
+                    from("direct:" + name).routeId(routeId).routePolicy(policy).to("log:" + name + "?level=OFF");
+                }
+            });
+            context.start();
+        }
+
+        boolean isStarted() {
+            return context.getRouteStatus(routeId).isStarted();
+        }
+
+        void stop() throws Exception {
+            policy.shutdown();
+            context.stop();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        locks = new H2Locks("failover");
+        scheduler = new LockScheduler();
+        leader = new Node("leader");
+        while (!leader.isStarted()) {
+            sleep(1);
+        }
+        standby = new Node("standby");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        standby.stop();
+        scheduler.shutdownNow();
+        locks.close();
+    }
+
+    @Benchmark
+    public void failover() throws Exception {
+        leader.stop();
+        while (!standby.isStarted()) {
+            sleep(1);
+        }
+    }
+}
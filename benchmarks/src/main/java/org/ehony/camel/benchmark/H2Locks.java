@@ -0,0 +1,78 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.ehony.camel.*;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.sql.*;
+import java.util.Scanner;
+
+/**
+ * Embedded H2 database with the <code>locks</code> table shared by benchmarks.
+ * <p>Table is created from <code>schema-h2.sql</code> shipped with the library.</p>
+ */
+public class H2Locks
+{
+
+    public static final String SCHEMA = "/schema-h2.sql";
+
+    private final JdbcConnectionPool dataSource;
+
+    public H2Locks(String name) throws SQLException {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        dataSource.setMaxConnections(128);
+        execute("drop table if exists locks");
+        InputStream in = H2Locks.class.getResourceAsStream(SCHEMA);
+        Scanner statements = new Scanner(in, "UTF-8").useDelimiter(";");
+        try {
+            while (statements.hasNext()) {
+                String sql = statements.next().trim();
+                if (!sql.isEmpty()) {
+                    execute(sql);
+                }
+            }
+        } finally {
+            statements.close();
+        }
+    }
+
+    /**
+     * Delete all lock records, so locks are obtained by inserting records again.
+     */
+    public void clear() throws SQLException {
+        execute("delete from locks");
+    }
+
+    private void execute(String sql) throws SQLException {
+        Connection c = dataSource.getConnection();
+        try {
+            Statement stmt = c.createStatement();
+            try {
+                stmt.execute(sql);
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void close() {
+        dataSource.dispose();
+    }
+
+    public ExpirableDatabaseLock createLock(String lockId) {
+        return new H2ExpirableLock(dataSource, lockId);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.ehony.camel.ExpirableDatabaseLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of lock obtaining attempts by consumers contending for the same lock.
+ * <p>Every successful attempt is followed by unlocking, so the lock changes hands.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObtainLockBenchmark
+{
+
+    private static final String LOCK_ID = "benchmark";
+
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        H2Locks locks;
+
+        @Setup
+        public void setUp() throws Exception {
+            locks = new H2Locks("obtain");
+        }
+
+        @TearDown
+        public void tearDown() {
+            locks.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Consumer {
+
+        ExpirableDatabaseLock lock;
+
+        @Setup
+        public void setUp(Database database) {
+            lock = database.locks.createLock(LOCK_ID);
+            lock.setRetryCount(0);
+        }
+    }
+
+    private static boolean obtain(Consumer consumer) {
+        if (consumer.lock.tryLock()) {
+            consumer.lock.unlock();
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean obtain1(Consumer consumer) {
+        return obtain(consumer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean obtain8(Consumer consumer) {
+        return obtain(consumer);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean obtain64(Consumer consumer) {
+        return obtain(consumer);
+    }
+}
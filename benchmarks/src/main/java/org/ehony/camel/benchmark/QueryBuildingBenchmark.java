@@ -0,0 +1,75 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.ehony.camel.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.*;
+import java.text.MessageFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of preparing a lock query on the JVM side: formatting SQL literals
+ * with {@link MessageFormat}, as lock queries were built before, versus
+ * binding parameters of a constant query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBuildingBenchmark
+{
+
+    /**
+     * Update query pattern with inlined literals used before parameters were bound.
+     */
+    private static final String UPDATE_PATTERN =
+            "update locks"
+                    + " set consumer_id = ''{1}'', expires = dateAdd(ms, {2,number,#}, getDate()), exclusive = {3}"
+                    + " where lock_id = ''{0}'' and ((consumer_id <> ''{1}'' and expires <= getDate() and exclusive <> 1) or consumer_id = ''{1}'')";
+
+    private H2Locks locks;
+    private ExpirableDatabaseLock lock;
+    private Connection connection;
+    private PreparedStatement stmt;
+
+    @Setup
+    public void setUp() throws Exception {
+        locks = new H2Locks("query");
+        lock = locks.createLock("benchmark");
+        connection = locks.getDataSource().getConnection();
+        stmt = connection.prepareStatement(H2ExpirableLock.UPDATE_QUERY);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stmt.close();
+        connection.close();
+        locks.close();
+    }
+
+    @Benchmark
+    public String format() {
+        return MessageFormat.format(UPDATE_PATTERN, lock.getLockId(), lock.getConsumerId(), lock.getExpirationTimeout(), 0);
+    }
+
+    @Benchmark
+    public void bind(Blackhole blackhole) throws SQLException {
+        // Parameters of the update query, see ExpirableDatabaseLock#setParameters.
+        stmt.setString(1, lock.getConsumerId());
+        stmt.setLong(2, lock.getExpirationTimeout());
+        stmt.setBoolean(3, false);
+        stmt.setString(4, lock.getConsumerId());
+        stmt.setString(5, lock.getLockId());
+        stmt.setString(6, lock.getConsumerId());
+        blackhole.consume(stmt);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.ehony.camel.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Database load caused by consumers waiting for the lock held by another
+ * consumer, with different retry strategies.
+ * <p>Auxiliary <code>attempts</code> counter reports lock queries per second.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(50)
+@Fork(1)
+public class RetryBenchmark
+{
+
+    private static final String LOCK_ID = "benchmark";
+    private static final long CONTENTION_TIME = 500;
+
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({"fixed", "exponential", "jitter"})
+        public String strategy;
+
+        H2Locks locks;
+
+        @Setup
+        public void setUp() throws Exception {
+            locks = new H2Locks("retry");
+            // Lock is held for the whole trial, so contenders never obtain it.
+            locks.createLock(LOCK_ID).lock();
+        }
+
+        @TearDown
+        public void tearDown() {
+            locks.close();
+        }
+
+        RetryStrategy createStrategy() {
+            if ("exponential".equals(strategy)) {
+                return new ExponentialRetryStrategy(10, 200);
+            }
+            if ("jitter".equals(strategy)) {
+                return new DecorrelatedJitterRetryStrategy(10, 200);
+            }
+            return new FixedRetryStrategy(10);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Contender {
+
+        /**
+         * Number of lock obtaining queries issued by this contender.
+         */
+        public long attempts;
+
+        ExpirableDatabaseLock lock;
+
+        @Setup
+        public void setUp(Database database) {
+            lock = database.locks.createLock(LOCK_ID);
+            lock.setRetryStrategy(database.createStrategy());
+            lock.setMetrics(new NoopLockMetrics() {
+                @Override
+                public void acquireFailed(String lockId, int count, long nanos) {
+                    attempts += count;
+                }
+            });
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            attempts = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean contend(Contender contender) throws InterruptedException {
+        return contender.lock.tryLock(CONTENTION_TIME, MILLISECONDS);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel.benchmark;
+
+import org.ehony.camel.ExpirableDatabaseLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of releasing the held lock.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UnlockBenchmark
+{
+
+    private H2Locks locks;
+    private ExpirableDatabaseLock lock;
+
+    @Setup
+    public void setUp() throws Exception {
+        locks = new H2Locks("unlock");
+        lock = locks.createLock("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        locks.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void obtain() {
+        lock.lock();
+    }
+
+    @Benchmark
+    public void unlock() {
+        lock.unlock();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.apache.camel.util.ObjectHelper.notNull;
+
+/**
+ * Route policy which runs routes on at most as many nodes as
+ * there are permits in the {@link DatabaseSemaphore}.
+ * <p>Nodes which hold a permit start their routes, the rest keep
+ * monitoring the semaphore and take over permits which are released
+ * or which leases expire.</p>
+ * <p>Permit is a {@link LeasedLock}, so routes are stopped when lease of the
+ * held permit expires and exchanges carry fencing token of its slot, the same
+ * way as with {@link ExpirableDatabaseLock}.</p>
+ */
+public class BoundedAccessRoutePolicy extends SerialAccessRoutePolicy
+{
+
+    private DatabaseSemaphore semaphore;
+
+    /**
+     * Create new bounded access Camel route policy which monitors
+     * semaphore in the {@link LockScheduler#getDefault() shared scheduler}.
+     *
+     * @param semaphore semaphore which bounds the number of active nodes.
+     */
+    public BoundedAccessRoutePolicy(DatabaseSemaphore semaphore) {
+        this(semaphore, LockScheduler.getDefault());
+    }
+
+    /**
+     * Create new bounded access Camel route policy which runs
+     * semaphore monitoring task in provided thread pool.
+     *
+     * @param semaphore semaphore which bounds the number of active nodes.
+     * @param pool thread pool to run semaphore monitor.
+     */
+    public BoundedAccessRoutePolicy(DatabaseSemaphore semaphore, ExecutorService pool) {
+        super(getLock(semaphore), pool);
+        this.semaphore = semaphore;
+    }
+
+    /**
+     * Get permit view of the semaphore, which is validated before the policy is constructed.
+     */
+    private static LeasedLock getLock(DatabaseSemaphore semaphore) {
+        notNull(semaphore, "Expected semaphore.");
+        return semaphore.getLock();
+    }
+
+    public DatabaseSemaphore getSemaphore() {
+        return semaphore;
+    }
+}
@@ -8,59 +8,128 @@ package org.ehony.camel;
 
 import javax.sql.DataSource;
 import java.sql.*;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.*;
 
+import static java.lang.Math.*;
 import static java.lang.Thread.*;
+import static java.util.concurrent.TimeUnit.*;
 import static org.apache.commons.lang.Validate.*;
 
-public abstract class DatabaseLock implements Lock
+/**
+ * Lock shared by consumers through a record of the <code>locks</code> table.
+ * <p>Lock is re-entrant per instance, not per thread: every successful acquisition
+ * adds a hold, threads sharing the instance share its holds, and {@link #unlock()}
+ * releases the lock in the database only when the last hold is removed.
+ * Unlocking while more holds remain issues no query. Failure to obtain the lock
+ * discards all holds, since the lock belongs to another consumer.</p>
+ * <p>Dialects provide queries, see {@link ExpirableDatabaseLock}.</p>
+ */
+public abstract class DatabaseLock extends DatabaseLockSupport implements Lock
 {
     
-    private DataSource dataSource;
-    private String lockId, consumerId = UUID.randomUUID().toString();
-    private long delay = 1000;
+    private String lockId;
+    private LockReleaseNotifier releaseNotifier;
+    private LockMetrics metrics = NoopLockMetrics.INSTANCE;
+    private ScheduledExecutorService asyncExecutor;
+    private volatile long token, obtained;
+    private final AtomicInteger holds = new AtomicInteger();
     protected int tryCount = 3;
 
     protected DatabaseLock(DataSource dataSource, String lockId) {
-        notNull(dataSource, "Data source expected.");
+        super(dataSource);
         notEmpty(lockId, "Non-empty lock identifier expected.");
-        this.dataSource = dataSource;
         this.lockId = lockId;
     }
 
+    /**
+     * Kinds of queries issued by the lock.
+     */
+    protected enum Query
+    {
+        ACQUIRE, UPDATE, INSERT, RELEASE, RENEW
+    }
+
     protected abstract String getUpdateQuery();
     
     protected abstract String getInsertQuery();
     
     protected abstract String getReleaseQuery();
+
+    /**
+     * Get query which atomically obtains the lock in a single statement.
+     * <p>Dialects supporting upserts, such as <code>merge</code>, should
+     * provide one, so obtaining the lock costs a single round trip instead of
+     * sequential {@link #getUpdateQuery() update} and {@link #getInsertQuery() insert}
+     * and leaves no race window between them.</p>
+     *
+     * @return Query updating a single row if lock was obtained, or <code>null</code>
+     * if dialect does not support atomic acquisition.
+     */
+    protected String getAcquireQuery() {
+        return null;
+    }
+
+    /**
+     * Bind parameters of the query before its execution.
+     * <p>Queries are expected to be constant strings with <code>?</code> placeholders,
+     * so the database compiles a single execution plan per query and connection
+     * pools with statement caching can reuse prepared statements.</p>
+     * <p>Default implementation binds nothing.</p>
+     *
+     * @param query kind of the query being executed.
+     * @param stmt statement prepared from the query.
+     */
+    protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+    }
     
     /**
-     * Pauses this thread for given amount of msec.
+     * Get query of the given kind provided by this lock.
      */
-    private static void pause(long delay) {
-        try {
-            sleep(delay);
-        } catch (InterruptedException ie) {
-            currentThread().interrupt();
+    protected String getQuery(Query query) {
+        switch (query) {
+            case ACQUIRE:
+                return getAcquireQuery();
+            case UPDATE:
+                return getUpdateQuery();
+            case INSERT:
+                return getInsertQuery();
+            case RELEASE:
+                return getReleaseQuery();
+            default:
+                throw new IllegalArgumentException("Unknown query " + query);
         }
     }
     
     /**
-     * Get lock identifier.
+     * Pauses this thread for given amount of msec or until
+     * lock release is notified.
      */
-    public String getLockId() {
-        return lockId;
+    private void await(long delay) {
+        if (releaseNotifier == null) {
+            pause(delay);
+        } else {
+            try {
+                releaseNotifier.awaitRelease(lockId, delay);
+            } catch (InterruptedException ie) {
+                currentThread().interrupt();
+            }
+        }
     }
 
     /**
-     * Get unique identifier used to distinguish lock consumers.
+     * Get lock identifier.
      */
-    public String getConsumerId() {
-        return consumerId;
+    public String getLockId() {
+        return lockId;
     }
 
+    @Override
+    public void setConsumerId(String consumerId) {
+        isTrue(holds.get() == 0, "Cannot change consumer of the held lock.");
+        super.setConsumerId(consumerId);
+    }
 
     /**
      * Get number of additional lock obtaining retries.
@@ -82,102 +151,479 @@ public abstract class DatabaseLock implements Lock
         this.tryCount = count;
     }
 
-    public long getRetryDelay() {
-        return delay;
+    public LockReleaseNotifier getReleaseNotifier() {
+        return releaseNotifier;
+    }
+
+    /**
+     * Set notifier which signals waiting consumers when lock is released.
+     * <p>Consumers waiting for the lock wake up as soon as holder unlocks it,
+     * instead of waiting for the end of the retry pause. Pause computed by
+     * {@link #getRetryStrategy() retry strategy} remains the upper bound of
+     * waiting, so leases which expire without unlocking are still noticed.</p>
+     *
+     * @param notifier release notifier or <code>null</code> to rely on polling only.
+     */
+    public void setReleaseNotifier(LockReleaseNotifier notifier) {
+        this.releaseNotifier = notifier;
+    }
+
+    public LockMetrics getMetrics() {
+        return metrics;
     }
 
-    public void setRetryDelay(long delay) {
-        isTrue(delay > 0, "Positive delay expected.");
-        this.delay = delay;
+    /**
+     * Set metrics which record attempts, latencies and failures of this lock.
+     *
+     * @param metrics lock metrics.
+     * @see ManagedLockMetrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        notNull(metrics, "Expected lock metrics.");
+        this.metrics = metrics;
     }
     
-    private int update(String query) throws SQLException {
-        Connection c = dataSource.getConnection();
-        PreparedStatement stmt = null;
-        int rows = 0;
+    /**
+     * Get fencing token issued to this consumer on the last lock acquisition or renewal.
+     * <p>Token grows monotonically every time the lock changes hands, so resources
+     * guarded by the lock can reject writes of consumers which lease has already
+     * expired by comparing tokens.</p>
+     * 
+     * @return Fencing token or zero if dialect does not issue tokens.
+     */
+    public long getFencingToken() {
+        return token;
+    }
+
+    /**
+     * Get executor which runs asynchronous lock operations.
+     * @return Executor provided via {@link #setAsyncExecutor(ScheduledExecutorService)}
+     * or {@link LockScheduler#getDefault() shared scheduler}.
+     */
+    public ScheduledExecutorService getAsyncExecutor() {
+        if (asyncExecutor != null) {
+            return asyncExecutor;
+        }
+        return LockScheduler.getDefault();
+    }
+
+    /**
+     * Set executor which runs queries and schedules retries of asynchronous
+     * lock operations.
+     * <p>Pending acquisitions do not occupy threads between attempts, so executor
+     * should be sized by the number of queries which may run simultaneously.
+     * Queries are blocking JDBC calls which occupy a thread until database responds,
+     * and the {@link LockScheduler#getDefault() shared scheduler} has only
+     * {@link LockScheduler#DEFAULT_POOL_SIZE two} threads which also run lock checks
+     * and lease renewals, so locks queried often or over a slow network should be
+     * given a dedicated executor.</p>
+     *
+     * @param executor executor or <code>null</code> to use the shared scheduler.
+     */
+    public void setAsyncExecutor(ScheduledExecutorService executor) {
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Get number of holds on this lock by this consumer.
+     * <p>Every successful lock acquisition adds a hold and every {@link #unlock()}
+     * removes one. Lock is released in the database when the last hold is removed.</p>
+     */
+    public int getHoldCount() {
+        return holds.get();
+    }
+
+    /**
+     * Read row returned by the query of the given kind.
+     * <p>Queries obtaining, renewing or releasing the lock may return a row
+     * instead of update count. Default implementation reads fencing token from
+     * the first column.</p>
+     *
+     * @param query kind of the executed query.
+     * @param rs result set positioned at the returned row.
+     */
+    protected void readResult(Query query, ResultSet rs) throws SQLException {
+        token = rs.getLong(1);
+    }
+
+    /**
+     * Read state of the lock after query of the given kind updated rows
+     * without returning them.
+     * <p>Dialects which cannot return updated rows from the statement itself
+     * may read fencing token here, e.g. from generated keys. Default
+     * implementation reads nothing.</p>
+     *
+     * @param query kind of the executed query.
+     * @param stmt executed statement.
+     */
+    protected void readUpdate(Query query, PreparedStatement stmt) throws SQLException {
+    }
+
+    /**
+     * Prepare statement of the query of the given kind.
+     *
+     * @param c connection to prepare statement on.
+     * @param query kind of the query.
+     */
+    protected PreparedStatement prepareStatement(Connection c, Query query) throws SQLException {
+        return c.prepareStatement(getQuery(query));
+    }
+
+    private int update(Connection c, Query query) throws SQLException {
+        PreparedStatement stmt = prepareStatement(c, query);
         try {
-            stmt = c.prepareStatement(query);
-            rows = stmt.executeUpdate();
-        } finally {
+            setParameters(query, stmt);
+            if (!stmt.execute()) {
+                int count = stmt.getUpdateCount();
+                if (count > 0) {
+                    readUpdate(query, stmt);
+                }
+                return count;
+            }
+            // Query outputs updated row.
+            ResultSet rs = stmt.getResultSet();
             try {
-                if (stmt != null) {
-                    stmt.close();
+                if (!rs.next()) {
+                    return 0;
                 }
+                readResult(query, rs);
+                return 1;
             } finally {
-                c.close();
+                rs.close();
             }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Execute query of the given kind on a separate connection.
+     * 
+     * @return Number of updated rows, or one if query returned a row.
+     */
+    protected int update(Query query) throws SQLException {
+        Connection c = getDataSource().getConnection();
+        try {
+            return update(c, query);
+        } finally {
+            c.close();
         }
-        return rows;
+    }
+
+    /**
+     * Check if lock held by this consumer can be re-entered without querying the database.
+     * <p>Invoked only while this consumer holds the lock. Callers polling the lock
+     * rely on acquisitions to keep it, so implementation must not serve them locally
+     * unless the lock is kept otherwise. Default implementation returns <code>false</code>,
+     * so every acquisition is a database write.</p>
+     */
+    protected boolean isHeldLocally() {
+        return false;
+    }
+
+    /**
+     * Invoked every time this consumer successfully obtains the lock in the database.
+     *
+     * @param sent {@link System#nanoTime()} before obtaining query was sent.
+     */
+    protected void onObtain(long sent) {
+    }
+
+    /**
+     * Invoked after this consumer released the lock, even if release query failed.
+     */
+    protected void onRelease() {
+    }
+
+    /**
+     * Invoked when this consumer failed to obtain the lock held by another consumer.
+     * <p>Default implementation does nothing.</p>
+     *
+     * @param c connection the lock was queried on.
+     */
+    protected void onContended(Connection c) throws SQLException {
+    }
+
+    /**
+     * Check if the failure of the obtaining query means that another consumer
+     * concurrently created the lock record.
+     * <p>Such failure is reported as a failed attempt instead of {@link LockException}.
+     * Default implementation returns <code>false</code>.</p>
+     *
+     * @param e failure of the obtaining query.
+     */
+    protected boolean isConcurrentInsert(SQLException e) {
+        return false;
+    }
+
+    /**
+     * Invoked when this consumer gives up obtaining the lock after its last attempt failed.
+     * <p>Default implementation does nothing.</p>
+     */
+    protected void onAcquireFailed() throws SQLException {
     }
 
     /**
      * Tries to quietly obtain lock.
+     * <p>All statements required to obtain the lock share a single connection.</p>
      */
     private boolean obtainLock() {
+        if (holds.get() > 0 && isHeldLocally()) {
+            holds.incrementAndGet();
+            return true;
+        }
         try {
-            return update(getUpdateQuery()) > 0 || update(getInsertQuery()) > 0; 
-        }catch (SQLException e) {
-            throw new LockException("Cannot obtain lock " + lockId + " by " + consumerId, e);
+            long sent = System.nanoTime();
+            boolean obtained;
+            Connection c = getDataSource().getConnection();
+            try {
+                try {
+                    if (getAcquireQuery() != null) {
+                        obtained = update(c, Query.ACQUIRE) > 0;
+                    } else {
+                        obtained = update(c, Query.UPDATE) > 0;
+                        if (!obtained) {
+                            metrics.insertAttempted(lockId);
+                            obtained = update(c, Query.INSERT) > 0;
+                        }
+                    }
+                } catch (SQLException e) {
+                    if (!isConcurrentInsert(e)) {
+                        throw e;
+                    }
+                    // Record was inserted by another consumer, so it holds the lock.
+                    obtained = false;
+                }
+                if (!obtained) {
+                    onContended(c);
+                }
+            } finally {
+                c.close();
+            }
+            if (obtained) {
+                if (this.obtained == 0) {
+                    this.obtained = System.nanoTime();
+                }
+                holds.incrementAndGet();
+                onObtain(sent);
+            } else {
+                // Lock belongs to another consumer, so holds are void.
+                holds.set(0);
+            }
+            return obtained;
+        } catch (SQLException e) {
+            metrics.failed(lockId);
+            throw new LockException("Cannot obtain lock " + lockId + " by " + getConsumerId(), e);
         }
     }
 
+    /**
+     * Record obtained lock.
+     *
+     * @param attempt number of failed attempts preceding the successful one.
+     * @param start time when consumer started obtaining the lock.
+     */
+    private boolean acquired(int attempt, long start) {
+        metrics.acquired(lockId, attempt + 1, System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Record failure to obtain the lock.
+     */
+    private boolean acquireFailed(int attempt, long start) {
+        metrics.acquireFailed(lockId, attempt + 1, System.nanoTime() - start);
+        try {
+            onAcquireFailed();
+        } catch (SQLException e) {
+            metrics.failed(lockId);
+            throw new LockException("Cannot give up lock " + lockId + " by " + getConsumerId(), e);
+        }
+        return false;
+    }
+
     @Override
     public void lock() {
+        long start = System.nanoTime();
+        int attempt = 0;
+        long backoff = 0;
         while (!obtainLock()) {
-            pause(delay);
+            backoff = getRetryStrategy().getDelay(++attempt, backoff);
+            await(backoff);
         }
+        acquired(attempt, start);
     }
 
     @Override
     public void unlock() {
-        for (int i = 0; i < tryCount + 1; i++) {
-            try {
-                if (update(getReleaseQuery()) == 0) {
-                    throw new IllegalMonitorStateException();
-                }
+        for (int count = holds.get(); count > 1; count = holds.get()) {
+            if (holds.compareAndSet(count, count - 1)) {
+                // Lock is still held by this consumer.
                 return;
-            } catch (SQLException e) {
-                throw new LockException("Cannot unlock " + lockId + " by " + consumerId, e);
             }
         }
+        holds.set(0);
+        long held = obtained;
+        obtained = 0;
+        try {
+            for (int i = 0; i < tryCount + 1; i++) {
+                try {
+                    if (update(Query.RELEASE) == 0) {
+                        throw new IllegalMonitorStateException();
+                    }
+                    metrics.released(lockId, held == 0 ? 0 : System.nanoTime() - held);
+                    if (releaseNotifier != null) {
+                        releaseNotifier.released(lockId);
+                    }
+                    return;
+                } catch (SQLException e) {
+                    metrics.failed(lockId);
+                    throw new LockException("Cannot unlock " + lockId + " by " + getConsumerId(), e);
+                }
+            }
+        } finally {
+            // Consumer stops holding the lock even if release query failed.
+            onRelease();
+        }
     }
 
     @Override
     public boolean tryLock() {
-        int i = 0;
+        long start = System.nanoTime();
+        int attempt = 0;
+        long backoff = 0;
         while (!obtainLock()) {
-            if (i++ >= tryCount) {
-                return false;
+            if (attempt >= tryCount) {
+                return acquireFailed(attempt, start);
             }
-            pause(delay);
+            backoff = getRetryStrategy().getDelay(++attempt, backoff);
+            await(backoff);
         }
-        return true;
+        return acquired(attempt, start);
     }
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        int attempt = 0;
+        long backoff = 0;
         while (!obtainLock()) {
             if (currentThread().isInterrupted()) {
+                acquireFailed(attempt, start);
                 throw new InterruptedException();
             }
-            pause(delay);
+            backoff = getRetryStrategy().getDelay(++attempt, backoff);
+            await(backoff);
         }
+        acquired(attempt, start);
     }
 
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-        long timeout = unit.toMillis(time);
-        long ts = System.currentTimeMillis();
+        // Deadline is not affected by wall clock adjustments.
+        long start = System.nanoTime(), deadline = start + unit.toNanos(time);
+        int attempt = 0;
+        long backoff = 0;
         while (!obtainLock()) {
             if (currentThread().isInterrupted()) {
+                acquireFailed(attempt, start);
                 throw new InterruptedException();
             }
-            if (System.currentTimeMillis() - ts >= timeout) {
-                return false;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return acquireFailed(attempt, start);
+            }
+            backoff = getRetryStrategy().getDelay(++attempt, backoff);
+            await(min(backoff, max(1, NANOSECONDS.toMillis(remaining))));
+        }
+        return acquired(attempt, start);
+    }
+
+    /**
+     * Obtain the lock without blocking the calling thread.
+     * <p>Attempts run on the {@link #getAsyncExecutor() async executor} and
+     * retries are scheduled there with pauses computed by {@link #getRetryStrategy() retry strategy},
+     * so no thread is parked between attempts. Each attempt is a blocking query which
+     * occupies an executor thread, see {@link #setAsyncExecutor(ScheduledExecutorService)}.
+     * Cancelling the future stops retries.</p>
+     *
+     * @param timeout amount of msec to keep retrying, zero means single attempt.
+     * @return Future completed with lease of the obtained lock or with <code>null</code>
+     * if lock was not obtained in time. Future completes exceptionally with
+     * {@link LockException} if database is unreachable.
+     */
+    public CompletableFuture<LockLease> acquireAsync(long timeout) {
+        isTrue(timeout >= 0, "Expected non-negative timeout.");
+        CompletableFuture<LockLease> future = new CompletableFuture<LockLease>();
+        getAsyncExecutor().execute(new AsyncAcquisition(future, timeout));
+        return future;
+    }
+
+    /**
+     * Remove a hold of the lock without blocking the calling thread.
+     *
+     * @return Future completed when hold is removed and, if it was the last one,
+     * lock is released in the database.
+     * @see #unlock()
+     */
+    public CompletableFuture<Void> releaseAsync() {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        getAsyncExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    unlock();
+                    future.complete(null);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Single attempt to obtain the lock which schedules next attempt on failure.
+     */
+    private class AsyncAcquisition implements Runnable {
+
+        private final CompletableFuture<LockLease> future;
+        private final long start = System.nanoTime(), deadline;
+        private int attempt;
+        private long backoff;
+
+        AsyncAcquisition(CompletableFuture<LockLease> future, long timeout) {
+            this.future = future;
+            this.deadline = start + MILLISECONDS.toNanos(timeout);
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                // Acquisition was cancelled.
+                return;
+            }
+            try {
+                if (obtainLock()) {
+                    acquired(attempt, start);
+                    if (!future.complete(new LockLease(DatabaseLock.this, token))) {
+                        // Future was cancelled while lock was being obtained.
+                        unlock();
+                    }
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    acquireFailed(attempt, start);
+                    future.complete(null);
+                    return;
+                }
+                backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                getAsyncExecutor().schedule(this, min(MILLISECONDS.toNanos(backoff), remaining), NANOSECONDS);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
             }
-            pause(delay);
         }
-        return true;
     }
 
     @Override
@@ -0,0 +1,338 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+
+import static java.lang.Math.min;
+import static java.util.Collections.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Group of expirable database locks obtained and renewed by a single consumer
+ * with a single set-based statement per tick.
+ * <p>Group is useful when many locks are held by the same application,
+ * so polling costs one database round trip per tick instead of one per lock.
+ * Each lock of the group is available as a {@link Lock} view via
+ * {@link #getLock(String)}, which can be provided to {@link SerialAccessRoutePolicy}.</p>
+ */
+public abstract class DatabaseLockGroup extends DatabaseLockSupport
+{
+
+    private List<String> lockIds;
+    private Set<String> released = new HashSet<String>();
+    private volatile Map<String, Long> held = emptyMap();
+    private long timeout = 60000, interval = 1000;
+    private long ticked;
+    private boolean fresh;
+
+    protected DatabaseLockGroup(DataSource dataSource, Collection<String> lockIds) {
+        super(dataSource);
+        notEmpty(lockIds, "Non-empty lock identifiers expected.");
+        noNullElements(lockIds, "Non-empty lock identifiers expected.");
+        this.lockIds = unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(lockIds)));
+    }
+
+    /**
+     * Get query which obtains or renews all locks of the group.
+     * <p>Query binds a parameter per lock of the {@link #getLockIds() group} and
+     * must return identifier and fencing token of every lock obtained by this consumer.</p>
+     */
+    protected abstract String getAcquireQuery();
+
+    /**
+     * Get query which releases locks of the group held by this consumer.
+     * <p>Query binds a parameter per lock of the {@link #getLockIds() group}.</p>
+     */
+    protected abstract String getReleaseQuery();
+
+    /**
+     * Bind parameters of the acquire query.
+     * <p>Identifiers of locks which consumer does not want to hold are
+     * bound as <code>null</code>, so query text stays constant.</p>
+     *
+     * @param stmt statement prepared from {@link #getAcquireQuery()}.
+     * @param lockIds identifiers of locks to obtain, some may be <code>null</code>.
+     */
+    protected abstract void setAcquireParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException;
+
+    /**
+     * Bind parameters of the release query.
+     *
+     * @param stmt statement prepared from {@link #getReleaseQuery()}.
+     * @param lockIds identifiers of locks to release, some may be <code>null</code>.
+     */
+    protected abstract void setReleaseParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException;
+
+    /**
+     * Get identifiers of locks in this group.
+     */
+    public List<String> getLockIds() {
+        return lockIds;
+    }
+
+    @Override
+    public synchronized void setConsumerId(String consumerId) {
+        isTrue(held.isEmpty(), "Cannot change consumer of held locks.");
+        super.setConsumerId(consumerId);
+    }
+
+    public long getExpirationTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set database lock lease timeout for this consumer.
+     * <p>Timeout must be greater than {@link #getAcquireInterval() acquire interval},
+     * otherwise leases expire between ticks.</p>
+     *
+     * @param timeout positive lock lease timeout.
+     */
+    public void setExpirationTimeout(long timeout) {
+        isTrue(timeout > 0, "Positive timeout expected.");
+        this.timeout = timeout;
+    }
+
+    public long getAcquireInterval() {
+        return interval;
+    }
+
+    /**
+     * Set minimum interval between ticks triggered by lock views.
+     * <p>Views return result of the latest tick unless it is older than
+     * this interval, so polling all views costs a single statement.</p>
+     *
+     * @param interval positive amount of msec.
+     */
+    public void setAcquireInterval(long interval) {
+        isTrue(interval > 0, "Positive interval expected.");
+        this.interval = interval;
+    }
+
+    /**
+     * Get identifiers of locks held by this consumer after the latest tick.
+     */
+    public Set<String> getHeldLockIds() {
+        return held.keySet();
+    }
+
+    /**
+     * Get fencing token of the lock issued on the latest tick.
+     * @return Fencing token or zero if lock is not held.
+     */
+    public long getFencingToken(String lockId) {
+        Long token = held.get(lockId);
+        if (token == null) {
+            return 0;
+        }
+        return token;
+    }
+
+    /**
+     * Obtain or renew all locks of this group which were not explicitly released.
+     *
+     * @return Identifiers of locks held by this consumer.
+     */
+    public synchronized Set<String> acquire() {
+        List<String> ids = new ArrayList<String>(lockIds);
+        for (int i = 0; i < ids.size(); i++) {
+            if (released.contains(ids.get(i))) {
+                ids.set(i, null);
+            }
+        }
+        Map<String, Long> result = new HashMap<String, Long>();
+        try {
+            Connection c = getDataSource().getConnection();
+            try {
+                PreparedStatement stmt = c.prepareStatement(getAcquireQuery());
+                try {
+                    setAcquireParameters(stmt, ids);
+                    ResultSet rs = stmt.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            result.put(rs.getString(1), rs.getLong(2));
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            // Nothing can be considered held if leases cannot be renewed,
+            // and next view attempt starts another tick.
+            held = emptyMap();
+            fresh = false;
+            throw new LockException("Cannot obtain locks " + lockIds + " by " + getConsumerId(), e);
+        }
+        ticked = System.nanoTime();
+        fresh = true;
+        held = unmodifiableMap(result);
+        return held.keySet();
+    }
+
+    /**
+     * Obtain or renew given locks of this group and release held locks which
+     * are not given, so consumer holds only a subset of the group.
+     *
+     * @param ids identifiers of locks to hold.
+     * @return Identifiers of locks held by this consumer.
+     */
+    public synchronized Set<String> acquire(Collection<String> ids) {
+        Set<String> dropped = new HashSet<String>(held.keySet());
+        dropped.removeAll(ids);
+        if (!dropped.isEmpty()) {
+            release(dropped);
+        }
+        released.clear();
+        released.addAll(lockIds);
+        released.removeAll(ids);
+        return acquire();
+    }
+
+    /**
+     * Release given locks of this group and stop obtaining them
+     * until they are requested via lock views.
+     */
+    public synchronized void release(Collection<String> ids) {
+        List<String> params = new ArrayList<String>(lockIds.size());
+        for (String lockId : lockIds) {
+            if (ids.contains(lockId)) {
+                params.add(lockId);
+                released.add(lockId);
+            } else {
+                params.add(null);
+            }
+        }
+        Map<String, Long> result = new HashMap<String, Long>(held);
+        result.keySet().removeAll(ids);
+        held = unmodifiableMap(result);
+        try {
+            Connection c = getDataSource().getConnection();
+            try {
+                PreparedStatement stmt = c.prepareStatement(getReleaseQuery());
+                try {
+                    setReleaseParameters(stmt, params);
+                    stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            throw new LockException("Cannot unlock " + ids + " by " + getConsumerId(), e);
+        }
+    }
+
+    /**
+     * Release all locks of this group.
+     */
+    public void release() {
+        release(lockIds);
+    }
+
+    /**
+     * Check if lock was obtained on a tick not older than acquire interval.
+     */
+    private boolean isHeld(String lockId) {
+        synchronized (this) {
+            if (released.remove(lockId) || !fresh || System.nanoTime() - ticked >= MILLISECONDS.toNanos(interval)) {
+                acquire();
+            }
+        }
+        return held.containsKey(lockId);
+    }
+
+    /**
+     * Get view of the lock from this group.
+     * <p>Lock methods do not issue queries on their own, but trigger a tick
+     * of the group if the latest one is older than acquire interval.
+     * View is re-entrant: unlocking it releases a single lock of the group
+     * when every successful acquisition was matched by unlocking.</p>
+     *
+     * @param lockId identifier of the lock from this group.
+     */
+    public Lock getLock(final String lockId) {
+        isTrue(lockIds.contains(lockId), "Unknown lock " + lockId);
+        return new Lock() {
+
+            private final AtomicInteger holds = new AtomicInteger();
+
+            @Override
+            public void lock() {
+                int attempt = 0;
+                long backoff = 0;
+                while (!tryLock()) {
+                    backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                    pause(backoff);
+                }
+            }
+
+            @Override
+            public void lockInterruptibly() throws InterruptedException {
+                int attempt = 0;
+                long backoff = 0;
+                while (!tryLock()) {
+                    backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                    MILLISECONDS.sleep(backoff);
+                }
+            }
+
+            @Override
+            public boolean tryLock() {
+                if (isHeld(lockId)) {
+                    holds.incrementAndGet();
+                    return true;
+                }
+                holds.set(0);
+                return false;
+            }
+
+            @Override
+            public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+                long deadline = System.nanoTime() + unit.toNanos(time);
+                int attempt = 0;
+                long backoff = 0;
+                while (!tryLock()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                    NANOSECONDS.sleep(min(remaining, MILLISECONDS.toNanos(backoff)));
+                }
+                return true;
+            }
+
+            @Override
+            public void unlock() {
+                if (!held.containsKey(lockId)) {
+                    throw new IllegalMonitorStateException();
+                }
+                if (holds.decrementAndGet() <= 0) {
+                    holds.set(0);
+                    release(singleton(lockId));
+                }
+            }
+
+            @Override
+            public Condition newCondition() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
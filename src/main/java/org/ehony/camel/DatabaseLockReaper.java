@@ -0,0 +1,178 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.slf4j.*;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.*;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Housekeeper which deletes records of locks expired long ago.
+ * <p>Release only moves expiration of the record to the past, so tables of
+ * many short-lived lock identifiers grow without bound. Reaper deletes records
+ * which have been expired for longer than {@link #setRetention(long) retention}
+ * in batches, each in its own statement, so deletion never blocks lock traffic
+ * for long. Exclusive records are never deleted.</p>
+ * <p><b>Important</b> Fencing token of the reaped lock starts from one again,
+ * so retention must exceed the time resources may receive writes fenced by the
+ * token of the previous holder, and locks which tokens are persisted by resources
+ * should not be reaped at all.</p>
+ */
+public abstract class DatabaseLockReaper
+{
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseLockReaper.class);
+
+    private DataSource dataSource;
+    private ScheduledExecutorService scheduler;
+    private long retention = 3600000, interval = 60000;
+    private int batchSize = 1000;
+    private ScheduledFuture<?> task;
+
+    /**
+     * Create reaper which runs in the {@link LockScheduler#getDefault() shared scheduler}.
+     */
+    protected DatabaseLockReaper(DataSource dataSource) {
+        this(dataSource, LockScheduler.getDefault());
+    }
+
+    /**
+     * @param dataSource data source of the locks table.
+     * @param scheduler scheduler to run reaping on.
+     */
+    protected DatabaseLockReaper(DataSource dataSource, ScheduledExecutorService scheduler) {
+        notNull(dataSource, "Data source expected.");
+        notNull(scheduler, "Scheduler expected.");
+        this.dataSource = dataSource;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Get query which deletes a batch of non-exclusive records expired for longer than retention.
+     */
+    protected abstract String getReapQuery();
+
+    /**
+     * Bind parameters of the reap query.
+     *
+     * @param stmt statement prepared from {@link #getReapQuery()}.
+     * @param retention amount of msec records must have been expired for.
+     * @param batchSize maximum number of records to delete.
+     */
+    protected abstract void setReapParameters(PreparedStatement stmt, long retention, int batchSize) throws SQLException;
+
+    public long getRetention() {
+        return retention;
+    }
+
+    /**
+     * Set time the record must have been expired for before it is deleted.
+     * <p>Retention should be much longer than expiration timeouts and takeover
+     * delays of locks, by default one hour.</p>
+     *
+     * @param retention non-negative amount of msec.
+     */
+    public void setRetention(long retention) {
+        isTrue(retention >= 0, "Non-negative retention expected.");
+        this.retention = retention;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set maximum number of records deleted by a single statement.
+     * @param batchSize positive number of records, by default 1000.
+     */
+    public void setBatchSize(int batchSize) {
+        isTrue(batchSize > 0, "Positive batch size expected.");
+        this.batchSize = batchSize;
+    }
+
+    public long getReapInterval() {
+        return interval;
+    }
+
+    /**
+     * Set interval between reaping runs.
+     * @param interval positive amount of msec, by default one minute.
+     */
+    public void setReapInterval(long interval) {
+        isTrue(interval > 0, "Positive reap interval expected.");
+        this.interval = interval;
+    }
+
+    /**
+     * Start reaping periodically.
+     */
+    public synchronized void start() {
+        if (task == null) {
+            task = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reap();
+                    } catch (LockException e) {
+                        log.warn("Cannot reap expired locks", e);
+                    }
+                }
+            }, interval, interval, MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop reaping, batch in progress is completed.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Delete records expired for longer than retention batch by batch.
+     *
+     * @return Number of deleted records.
+     */
+    public int reap() {
+        int total = 0, count;
+        do {
+            count = reapBatch();
+            total += count;
+        } while (count >= batchSize);
+        if (total > 0) {
+            log.debug("Reaped {} expired locks", total);
+        }
+        return total;
+    }
+
+    private int reapBatch() {
+        try {
+            Connection c = dataSource.getConnection();
+            try {
+                PreparedStatement stmt = c.prepareStatement(getReapQuery());
+                try {
+                    setReapParameters(stmt, retention, batchSize);
+                    return stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            throw new LockException("Cannot reap expired locks", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+
+import static java.lang.Thread.*;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Base of database locks which identifies the consumer and paces its
+ * retries of obtaining locks.
+ */
+public abstract class DatabaseLockSupport
+{
+
+    private DataSource dataSource;
+    private String consumerId = UUID.randomUUID().toString();
+    private RetryStrategy retryStrategy = new FixedRetryStrategy(1000);
+
+    protected DatabaseLockSupport(DataSource dataSource) {
+        notNull(dataSource, "Data source expected.");
+        this.dataSource = dataSource;
+    }
+
+    protected DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Get unique identifier used to distinguish lock consumers.
+     */
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    /**
+     * Set identifier used to distinguish lock consumers, random UUID by default.
+     * <p>Consumers sharing the identifier share the lock, so identifier must be unique
+     * among consumers alive at the same time.</p>
+     *
+     * @param consumerId non-empty consumer identifier.
+     */
+    public void setConsumerId(String consumerId) {
+        notEmpty(consumerId, "Non-empty consumer identifier expected.");
+        this.consumerId = consumerId;
+    }
+
+    /**
+     * Get pause before the first lock obtaining retry, as computed by
+     * the {@link #getRetryStrategy() retry strategy}.
+     */
+    public long getRetryDelay() {
+        return retryStrategy.getDelay(1, 0);
+    }
+
+    /**
+     * Set fixed pause between lock obtaining retries.
+     *
+     * @param delay positive pause in msec.
+     * @see FixedRetryStrategy
+     */
+    public void setRetryDelay(long delay) {
+        isTrue(delay > 0, "Positive delay expected.");
+        this.retryStrategy = new FixedRetryStrategy(delay);
+    }
+
+    public RetryStrategy getRetryStrategy() {
+        return retryStrategy;
+    }
+
+    /**
+     * Set strategy which computes pauses between lock obtaining retries.
+     * <p>Fixed pause causes all waiting consumers to hit the lock record
+     * simultaneously as soon as it expires. Use {@link ExponentialRetryStrategy}
+     * or {@link DecorrelatedJitterRetryStrategy} to spread their attempts.</p>
+     *
+     * @param strategy retry strategy.
+     */
+    public void setRetryStrategy(RetryStrategy strategy) {
+        notNull(strategy, "Expected retry strategy.");
+        this.retryStrategy = strategy;
+    }
+
+    /**
+     * Pauses this thread for given amount of msec.
+     */
+    protected static void pause(long delay) {
+        try {
+            sleep(delay);
+        } catch (InterruptedException ie) {
+            currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+
+import static java.util.Collections.unmodifiableSortedSet;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Membership of consumers in a cluster tracked with heartbeat records
+ * in the locks table.
+ * <p>Every member holds an expirable lock record <code>&lt;group id&gt;@&lt;member id&gt;</code>
+ * and prolongs its lease on each {@link #heartbeat() heartbeat}. Member which stops
+ * heartbeating disappears from {@link #getMembers() members} as soon as its lease expires.</p>
+ */
+public abstract class DatabaseMembership
+{
+
+    private DataSource dataSource;
+    private String groupId, memberId, prefix;
+    private ExpirableDatabaseLock record;
+
+    protected DatabaseMembership(DataSource dataSource, String groupId, String memberId) {
+        notNull(dataSource, "Data source expected.");
+        notEmpty(groupId, "Non-empty group identifier expected.");
+        notEmpty(memberId, "Non-empty member identifier expected.");
+        this.dataSource = dataSource;
+        this.groupId = groupId;
+        this.memberId = memberId;
+        this.prefix = groupId + "@";
+        this.record = createRecord(dataSource, prefix + memberId);
+        // Heartbeat must not wait for the record of a previous incarnation.
+        record.setRetryCount(0);
+    }
+
+    /**
+     * Create lock which represents heartbeat record of this member.
+     * <p>Invoked from constructor, so implementation must not rely on
+     * state of the subclass.</p>
+     *
+     * @param dataSource data source of the membership.
+     * @param recordId identifier of the heartbeat record.
+     */
+    protected abstract ExpirableDatabaseLock createRecord(DataSource dataSource, String recordId);
+
+    /**
+     * Get query which selects identifiers of heartbeat records which leases have not expired.
+     */
+    protected abstract String getMembersQuery();
+
+    /**
+     * Bind parameters of the members query.
+     *
+     * @param stmt statement prepared from {@link #getMembersQuery()}.
+     * @param prefix prefix of heartbeat record identifiers of the group.
+     */
+    protected abstract void setMembersParameters(PreparedStatement stmt, String prefix) throws SQLException;
+
+    /**
+     * Get <code>like</code> pattern which matches identifiers starting with the prefix.
+     * <p>Backslash and wildcards of the prefix are escaped with backslash, so query must
+     * declare <code>escape '\'</code>. Unlike comparison of the identifier substring,
+     * such pattern lets the database seek the primary key index by the prefix.</p>
+     *
+     * @param prefix literal prefix of identifiers.
+     * @param wildcards characters which the database treats as wildcards.
+     */
+    public static String getPrefixPattern(String prefix, String wildcards) {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '\\' || wildcards.indexOf(c) >= 0) {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    /**
+     * Get lock which represents heartbeat record of this member.
+     */
+    public ExpirableDatabaseLock getRecord() {
+        return record;
+    }
+
+    /**
+     * Set lease timeout of the heartbeat record.
+     * <p>Timeout bounds the time required to notice that member has left
+     * the cluster without {@link #leave() leaving} it explicitly.</p>
+     *
+     * @see ExpirableDatabaseLock#setExpirationTimeout(long)
+     */
+    public void setExpirationTimeout(long timeout) {
+        isTrue(timeout > 0, "Positive timeout expected.");
+        record.setExpirationTimeout(timeout);
+    }
+
+    /**
+     * Prolong lease of the heartbeat record of this member.
+     *
+     * @return <code>true</code> if this member is alive, <code>false</code>
+     * if record belongs to another consumer with the same member identifier.
+     */
+    public synchronized boolean heartbeat() {
+        if (record.getHoldCount() > 0 && record.renew()) {
+            return true;
+        }
+        if (!record.tryLock()) {
+            return false;
+        }
+        // Member keeps a single hold of its record.
+        while (record.getHoldCount() > 1) {
+            record.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Release heartbeat record, so other members notice leaving immediately.
+     */
+    public synchronized void leave() {
+        try {
+            while (record.getHoldCount() > 0) {
+                record.unlock();
+            }
+        } catch (IllegalMonitorStateException e) {
+            // Record has expired and may belong to a restarted member.
+        }
+    }
+
+    /**
+     * Get identifiers of members which heartbeat records have not expired.
+     */
+    public SortedSet<String> getMembers() {
+        SortedSet<String> members = new TreeSet<String>();
+        try {
+            Connection c = dataSource.getConnection();
+            try {
+                PreparedStatement stmt = c.prepareStatement(getMembersQuery());
+                try {
+                    setMembersParameters(stmt, prefix);
+                    ResultSet rs = stmt.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            String recordId = rs.getString(1);
+                            if (recordId.startsWith(prefix)) {
+                                members.add(recordId.substring(prefix.length()));
+                            }
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            throw new LockException("Cannot read members of " + groupId, e);
+        }
+        return unmodifiableSortedSet(members);
+    }
+}
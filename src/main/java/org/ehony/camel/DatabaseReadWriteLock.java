@@ -0,0 +1,95 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Database lock which allows many readers or a single writer.
+ * <p>Readers hold shared leases, one record per reader, and writer holds
+ * an exclusive lease of the lock record. Leases of both kinds expire and
+ * are renewed the same way as leases of {@link ExpirableDatabaseLock}.</p>
+ * <p>Writers are preferred: writer which tries to obtain the lock while
+ * readers hold it claims the lock record, so no new readers are admitted
+ * and the writer obtains the lock as soon as existing readers release it or
+ * their leases expire. Writer keeps its claim only while it retries and
+ * withdraws it when it gives up, e.g. when {@link java.util.concurrent.locks.Lock#tryLock()}
+ * fails, so readers are admitted again. Claim of the writer which crashed
+ * expires with its lease.</p>
+ * <p>Read and write locks are held by distinct consumers, so write lock
+ * cannot be downgraded to read lock.</p>
+ */
+public abstract class DatabaseReadWriteLock implements ReadWriteLock
+{
+
+    private String lockId;
+    private ExpirableDatabaseLock readLock, writeLock;
+
+    protected DatabaseReadWriteLock(DataSource dataSource, String lockId) {
+        notNull(dataSource, "Data source expected.");
+        notEmpty(lockId, "Non-empty lock identifier expected.");
+        this.lockId = lockId;
+        this.readLock = createReadLock(dataSource, lockId);
+        this.writeLock = createWriteLock(dataSource, lockId);
+    }
+
+    /**
+     * Create lock which obtains shared lease of the reader.
+     * <p>Invoked from constructor, so implementation must not rely on
+     * state of the subclass.</p>
+     */
+    protected abstract ExpirableDatabaseLock createReadLock(DataSource dataSource, String lockId);
+
+    /**
+     * Create lock which obtains exclusive lease of the writer.
+     * <p>Invoked from constructor, so implementation must not rely on
+     * state of the subclass.</p>
+     */
+    protected abstract ExpirableDatabaseLock createWriteLock(DataSource dataSource, String lockId);
+
+    /**
+     * Get lock identifier.
+     */
+    public String getLockId() {
+        return lockId;
+    }
+
+    @Override
+    public ExpirableDatabaseLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public ExpirableDatabaseLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * Set lease timeout of both read and write locks.
+     *
+     * @param timeout positive lock lease timeout.
+     * @see ExpirableDatabaseLock#setExpirationTimeout(long)
+     */
+    public void setExpirationTimeout(long timeout) {
+        isTrue(timeout > 0, "Positive timeout expected.");
+        readLock.setExpirationTimeout(timeout);
+        writeLock.setExpirationTimeout(timeout);
+    }
+
+    /**
+     * Set executor which keeps leases of both read and write locks alive.
+     * @see ExpirableDatabaseLock#setRenewalExecutor(ScheduledExecutorService)
+     */
+    public void setRenewalExecutor(ScheduledExecutorService executor) {
+        readLock.setRenewalExecutor(executor);
+        writeLock.setRenewalExecutor(executor);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import static java.lang.Math.min;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.*;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Counting semaphore which allows at most a fixed number of consumers
+ * to hold a permit simultaneously.
+ * <p>Each permit is a slot represented by a separate expirable lock record
+ * <code>&lt;semaphore id&gt;#&lt;slot&gt;</code>, so semaphore reuses queries of the
+ * dialect and leases of slots expire the same way as leases of locks. Consumer
+ * holds at most one permit of the semaphore. Permit is available as a {@link Lock}
+ * view via {@link #getLock()}, which can be provided to {@link BoundedAccessRoutePolicy}.
+ * Blocking acquisitions of the view pause between attempts as computed by the
+ * {@link #setRetryStrategy(RetryStrategy) retry strategy}.</p>
+ */
+public abstract class DatabaseSemaphore extends DatabaseLockSupport
+{
+
+    private String semaphoreId;
+    private List<ExpirableDatabaseLock> slots;
+    private volatile ExpirableDatabaseLock held;
+    private final Random random = new Random();
+
+    protected DatabaseSemaphore(DataSource dataSource, String semaphoreId, int permits) {
+        super(dataSource);
+        notEmpty(semaphoreId, "Non-empty semaphore identifier expected.");
+        isTrue(permits > 0, "Positive number of permits expected.");
+        this.semaphoreId = semaphoreId;
+        List<ExpirableDatabaseLock> slots = new ArrayList<ExpirableDatabaseLock>(permits);
+        for (int i = 0; i < permits; i++) {
+            ExpirableDatabaseLock slot = createSlot(dataSource, semaphoreId + "#" + i);
+            // Busy slot is skipped instead of waiting for it.
+            slot.setRetryCount(0);
+            slot.setConsumerId(getConsumerId());
+            slots.add(slot);
+        }
+        this.slots = unmodifiableList(slots);
+    }
+
+    /**
+     * Create lock which represents a single permit slot.
+     * <p>Invoked from constructor, so implementation must not rely on
+     * state of the subclass.</p>
+     *
+     * @param dataSource data source of the semaphore.
+     * @param slotId identifier of the slot lock record.
+     */
+    protected abstract ExpirableDatabaseLock createSlot(DataSource dataSource, String slotId);
+
+    /**
+     * Get semaphore identifier.
+     */
+    public String getSemaphoreId() {
+        return semaphoreId;
+    }
+
+    /**
+     * Get maximum number of consumers holding permits simultaneously.
+     */
+    public int getPermits() {
+        return slots.size();
+    }
+
+    /**
+     * Get locks which represent permit slots.
+     * <p>Slots can be configured individually, e.g. to provide distinct
+     * {@link DatabaseLock#setMetrics(LockMetrics) metrics}.</p>
+     */
+    public List<ExpirableDatabaseLock> getSlots() {
+        return slots;
+    }
+
+    /**
+     * Set lease timeout of permits obtained by this consumer.
+     * @see ExpirableDatabaseLock#setExpirationTimeout(long)
+     */
+    public void setExpirationTimeout(long timeout) {
+        for (ExpirableDatabaseLock slot : slots) {
+            slot.setExpirationTimeout(timeout);
+        }
+    }
+
+    /**
+     * Set executor which keeps lease of the obtained permit alive.
+     * @see ExpirableDatabaseLock#setRenewalExecutor(ScheduledExecutorService)
+     */
+    public void setRenewalExecutor(ScheduledExecutorService executor) {
+        for (ExpirableDatabaseLock slot : slots) {
+            slot.setRenewalExecutor(executor);
+        }
+    }
+
+    /**
+     * Set identifier of this consumer in records of all slots.
+     */
+    @Override
+    public synchronized void setConsumerId(String consumerId) {
+        isTrue(held == null, "Cannot change consumer of the held permit.");
+        super.setConsumerId(consumerId);
+        for (ExpirableDatabaseLock slot : slots) {
+            slot.setConsumerId(consumerId);
+        }
+    }
+
+    /**
+     * Get lock of the slot which permit is held by this consumer.
+     * @return Slot lock or <code>null</code> if no permit is held.
+     */
+    public ExpirableDatabaseLock getHeldSlot() {
+        return held;
+    }
+
+    /**
+     * Obtain a permit or re-enter the permit already held by this consumer.
+     * <p>Slots are probed starting from a random one, so consumers competing
+     * for permits rarely query the same slot record simultaneously.</p>
+     *
+     * @return <code>true</code> if permit is held by this consumer.
+     */
+    public synchronized boolean tryAcquire() {
+        if (held != null) {
+            if (held.tryLock()) {
+                return true;
+            }
+            // Lease of the permit was lost.
+            held = null;
+        }
+        int offset = random.nextInt(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            ExpirableDatabaseLock slot = slots.get((offset + i) % slots.size());
+            if (slot.tryLock()) {
+                held = slot;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove a hold of the permit and release it when the last hold is removed.
+     *
+     * @throws IllegalMonitorStateException if no permit is held by this consumer.
+     */
+    public synchronized void release() {
+        ExpirableDatabaseLock slot = held;
+        if (slot == null) {
+            throw new IllegalMonitorStateException();
+        }
+        if (slot.getHoldCount() <= 1) {
+            held = null;
+        }
+        slot.unlock();
+    }
+
+    /**
+     * Get view of the permit held by this consumer.
+     * <p>View is re-entrant: permit is released when every successful
+     * acquisition was matched by unlocking. Lease of the view is the lease of
+     * the held slot, and lease listeners are notified of any slot.</p>
+     */
+    public LeasedLock getLock() {
+        return new LeasedLock() {
+
+            @Override
+            public void lock() {
+                int attempt = 0;
+                long backoff = 0;
+                while (!tryLock()) {
+                    backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                    pause(backoff);
+                }
+            }
+
+            @Override
+            public void lockInterruptibly() throws InterruptedException {
+                int attempt = 0;
+                long backoff = 0;
+                while (!tryLock()) {
+                    backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                    MILLISECONDS.sleep(backoff);
+                }
+            }
+
+            @Override
+            public boolean tryLock() {
+                return tryAcquire();
+            }
+
+            @Override
+            public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+                long deadline = System.nanoTime() + unit.toNanos(time);
+                int attempt = 0;
+                long backoff = 0;
+                while (!tryLock()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    backoff = getRetryStrategy().getDelay(++attempt, backoff);
+                    NANOSECONDS.sleep(min(remaining, MILLISECONDS.toNanos(backoff)));
+                }
+                return true;
+            }
+
+            @Override
+            public void unlock() {
+                release();
+            }
+
+            @Override
+            public Condition newCondition() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long getRemainingLease() {
+                ExpirableDatabaseLock slot = held;
+                return slot == null ? 0 : slot.getRemainingLease();
+            }
+
+            @Override
+            public long getFencingToken() {
+                ExpirableDatabaseLock slot = held;
+                return slot == null ? 0 : slot.getFencingToken();
+            }
+
+            @Override
+            public void stopRenewal() {
+                ExpirableDatabaseLock slot = held;
+                if (slot != null) {
+                    slot.stopRenewal();
+                }
+            }
+
+            @Override
+            public void addLeaseListener(LeaseListener listener) {
+                for (ExpirableDatabaseLock slot : slots) {
+                    slot.addLeaseListener(listener);
+                }
+            }
+
+            @Override
+            public void removeLeaseListener(LeaseListener listener) {
+                for (ExpirableDatabaseLock slot : slots) {
+                    slot.removeLeaseListener(listener);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return semaphoreId;
+            }
+        };
+    }
+}
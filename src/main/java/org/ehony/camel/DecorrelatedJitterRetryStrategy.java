@@ -0,0 +1,44 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Retry strategy which picks random pause between initial delay and
+ * three times the previous pause, limited by given cap.
+ * <p>Randomized pauses spread attempts of consumers which started waiting
+ * at the same moment, so they do not hit the lock record simultaneously
+ * when it expires.</p>
+ */
+public class DecorrelatedJitterRetryStrategy implements RetryStrategy
+{
+
+    private long delay, maxDelay;
+
+    /**
+     * @param delay positive minimum pause in msec.
+     * @param maxDelay maximum pause in msec.
+     */
+    public DecorrelatedJitterRetryStrategy(long delay, long maxDelay) {
+        isTrue(delay > 0, "Positive delay expected.");
+        isTrue(maxDelay >= delay, "Maximum delay must not be less than initial delay.");
+        this.delay = delay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long getDelay(int attempt, long previous) {
+        long bound = previous > maxDelay / 3 ? maxDelay : previous * 3;
+        if (bound <= delay) {
+            return delay;
+        }
+        return ThreadLocalRandom.current().nextLong(delay, bound + 1);
+    }
+}
@@ -7,19 +7,120 @@
 package org.ehony.camel;
 
 import javax.sql.DataSource;
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.*;
 
-import static java.lang.Math.max;
-import static org.apache.commons.lang.Validate.isTrue;
+import static java.lang.Math.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.apache.commons.lang.Validate.*;
 
-public abstract class ExpirableDatabaseLock extends DatabaseLock
+public abstract class ExpirableDatabaseLock extends DatabaseLock implements LeasedLock
 {
     
-    private long timeout = 60000;
+    private long timeout = 60000, renewalInterval, safetyMargin;
+    private ScheduledExecutorService renewalExecutor;
+    private ScheduledFuture<?> renewal;
+    private volatile long renewed, deadline, reported = -1;
+    private volatile boolean leased;
+    private List<LeaseListener> listeners = new CopyOnWriteArrayList<LeaseListener>();
 
     protected ExpirableDatabaseLock(DataSource dataSource, String lockId) {
         super(dataSource, lockId);
     }
 
+    /**
+     * Get query which prolongs lease of the lock held by this consumer.
+     * <p>Query must update nothing if lock does not belong to this consumer
+     * or its lease has already expired.</p>
+     */
+    protected abstract String getRenewQuery();
+
+    /**
+     * Check if queries obtaining or renewing the lock return remaining lease
+     * in the second column of the returned row.
+     * <p>Remaining lease is computed by the database clock at the moment the lease
+     * was written, so consumers do not compare their clocks with the database one.
+     * Default implementation returns <code>false</code>, so lease is considered
+     * to last for the whole expiration timeout since the query was sent.</p>
+     */
+    protected boolean isLeaseReported() {
+        return false;
+    }
+
+    @Override
+    protected String getQuery(Query query) {
+        if (query == Query.RENEW) {
+            return getRenewQuery();
+        }
+        return super.getQuery(query);
+    }
+
+    /**
+     * Bind parameters in the order shared by dialects.
+     * <p>
+     * <b>Update and release</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2 &ndash; expiration timeout, release binds <code>-1</code><br/>
+     * 3 &ndash; lock exclusiveness bit<br/>
+     * 4 &ndash; consumer identifier<br/>
+     * 5 &ndash; lock identifier<br/>
+     * 6 &ndash; consumer identifier
+     * </p>
+     * <p>
+     * <b>Acquire and insert</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit<br/>
+     * 5 &ndash; lock identifier, insert only
+     * </p>
+     * <p>
+     * <b>Renew</b><br/>
+     * 1 &ndash; expiration timeout<br/>
+     * 2 &ndash; lock identifier<br/>
+     * 3 &ndash; consumer identifier
+     * </p>
+     */
+    @Override
+    protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+        // Lock is not exclusive, by default.
+        boolean exclusive = timeout < 0;
+        switch (query) {
+            case UPDATE:
+                setUpdateParameters(stmt, max(timeout, 0), exclusive);
+                break;
+            case ACQUIRE:
+            case INSERT:
+                stmt.setString(1, getLockId());
+                stmt.setString(2, getConsumerId());
+                stmt.setLong(3, max(timeout, 0));
+                stmt.setBoolean(4, exclusive);
+                if (query == Query.INSERT) {
+                    stmt.setString(5, getLockId());
+                }
+                break;
+            case RELEASE:
+                // Release moves expiration to the past.
+                setUpdateParameters(stmt, -1, false);
+                break;
+            case RENEW:
+                stmt.setLong(1, max(timeout, 0));
+                stmt.setString(2, getLockId());
+                stmt.setString(3, getConsumerId());
+                break;
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, long timeout, boolean exclusive) throws SQLException {
+        stmt.setString(1, getConsumerId());
+        stmt.setLong(2, timeout);
+        stmt.setBoolean(3, exclusive);
+        stmt.setString(4, getConsumerId());
+        stmt.setString(5, getLockId());
+        stmt.setString(6, getConsumerId());
+    }
+
     /**
      * Get lock expiration timeout exploited by this consumer.
      * @return For infinite timeout <code>-1</code> is returned, otherwise positive amount of msec.
@@ -42,4 +143,228 @@ public abstract class ExpirableDatabaseLock extends DatabaseLock
         isTrue(timeout != 0, "Zero timeout prohibited.");
         this.timeout = max(-1, timeout);
     }
+
+    /**
+     * Get interval between lease renewals.
+     * @return Positive amount of msec, by default one third of expiration timeout.
+     */
+    public long getRenewalInterval() {
+        if (renewalInterval > 0) {
+            return renewalInterval;
+        }
+        return max(1, timeout / 3);
+    }
+
+    /**
+     * Set interval between lease renewals.
+     * <p>Interval should be a fraction of {@link #getExpirationTimeout() expiration timeout},
+     * so lease can survive a few failed renewals.</p>
+     * 
+     * @param interval positive amount of msec.
+     */
+    public void setRenewalInterval(long interval) {
+        isTrue(interval > 0, "Positive renewal interval expected.");
+        this.renewalInterval = interval;
+    }
+
+    /**
+     * Get margin subtracted from the lease when deciding if lock can be re-entered locally.
+     * @return Positive amount of msec, by default one tenth of expiration timeout.
+     */
+    public long getSafetyMargin() {
+        if (safetyMargin > 0) {
+            return safetyMargin;
+        }
+        return max(1, timeout / 10);
+    }
+
+    /**
+     * Set margin subtracted from the lease when deciding if lock can be re-entered locally.
+     * <p>While this consumer holds the lock and its lease is {@link #setRenewalExecutor renewed}
+     * in background, acquisitions are served without querying the database until
+     * expiration timeout minus safety margin elapses since the lease was obtained
+     * or renewed. Without renewal every acquisition queries the database, since
+     * it is the only way the lease is prolonged. Margin should cover clock drift
+     * between database and this consumer and duration of the obtaining query.</p>
+     *
+     * @param margin positive amount of msec.
+     */
+    public void setSafetyMargin(long margin) {
+        isTrue(margin > 0, "Positive safety margin expected.");
+        this.safetyMargin = margin;
+    }
+
+    public ScheduledExecutorService getRenewalExecutor() {
+        return renewalExecutor;
+    }
+
+    /**
+     * Set executor which keeps lease of the obtained lock alive.
+     * <p>When executor is provided, lease of the obtained lock is periodically
+     * prolonged with a single cheap update until lock is released, so holder
+     * does not have to re-obtain the lock to keep it. Lease is not renewed
+     * by default. Renewals of many locks can share {@link LockScheduler#getDefault()}.</p>
+     * 
+     * @param executor executor to schedule renewals on or <code>null</code> to disable renewal.
+     */
+    public void setRenewalExecutor(ScheduledExecutorService executor) {
+        this.renewalExecutor = executor;
+    }
+
+    @Override
+    public void addLeaseListener(LeaseListener listener) {
+        notNull(listener, "Expected lease listener.");
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLeaseListener(LeaseListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Prolong lease of the lock held by this consumer.
+     * 
+     * @return <code>true</code> if lease was prolonged, <code>false</code>
+     * if lock does not belong to this consumer anymore.
+     */
+    public boolean renew() {
+        try {
+            long sent = System.nanoTime();
+            if (update(Query.RENEW) > 0) {
+                prolong(sent);
+                return true;
+            }
+            leased = false;
+            return false;
+        } catch (SQLException e) {
+            getMetrics().failed(getLockId());
+            throw new LockException("Cannot renew lock " + getLockId() + " by " + getConsumerId(), e);
+        }
+    }
+
+    @Override
+    protected void readResult(Query query, ResultSet rs) throws SQLException {
+        super.readResult(query, rs);
+        if (query != Query.RELEASE && isLeaseReported()) {
+            reported = rs.getLong(2);
+        }
+    }
+
+    /**
+     * Move local lease deadline to remaining lease minus safety margin since
+     * the moment query prolonging the lease was sent.
+     * <p>Deadline is measured by {@link System#nanoTime()}, so it is not affected
+     * by wall clock adjustments of this consumer.</p>
+     */
+    private void prolong(long sent) {
+        long lease = timeout;
+        if (reported >= 0) {
+            // Database may round expiration, so the shorter lease is trusted.
+            lease = min(reported, timeout);
+            reported = -1;
+        }
+        deadline = sent + MILLISECONDS.toNanos(lease - getSafetyMargin());
+        leased = true;
+    }
+
+    /**
+     * Get time left until the local lease deadline, which is expiration timeout
+     * minus safety margin since the lease was obtained or renewed.
+     * @return Amount of msec, zero if lease is not held or <code>-1</code> for infinite timeout.
+     */
+    @Override
+    public long getRemainingLease() {
+        if (!leased) {
+            return 0;
+        }
+        if (timeout < 0) {
+            return -1;
+        }
+        return max(0, NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Lock is re-entered locally only if lease never expires or is kept alive
+     * by renewal, otherwise callers polling the lock would let the lease lapse.
+     */
+    @Override
+    protected synchronized boolean isHeldLocally() {
+        if (!leased) {
+            return false;
+        }
+        // Infinite lease never expires.
+        return timeout < 0 || (renewal != null && System.nanoTime() - deadline < 0);
+    }
+
+    @Override
+    protected synchronized void onObtain(long sent) {
+        prolong(sent);
+        renewed = System.nanoTime();
+        if (renewal == null && renewalExecutor != null && timeout > 0) {
+            long interval = getRenewalInterval();
+            renewal = renewalExecutor.scheduleWithFixedDelay(new Renewal(), interval, interval, MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void onRelease() {
+        leased = false;
+        cancelRenewal();
+    }
+
+    /**
+     * Stop renewing lease of the held lock, so lease expires unless lock
+     * is released or obtained again before.
+     */
+    @Override
+    public void stopRenewal() {
+        cancelRenewal();
+    }
+
+    /**
+     * Stop lease renewal.
+     * @return <code>true</code> if renewal was active.
+     */
+    private synchronized boolean cancelRenewal() {
+        if (renewal == null) {
+            return false;
+        }
+        renewal.cancel(false);
+        renewal = null;
+        return true;
+    }
+
+    private void fireLeaseLost(Throwable cause) {
+        leased = false;
+        // Lock may have been released concurrently with renewal.
+        if (cancelRenewal()) {
+            for (LeaseListener listener : listeners) {
+                listener.leaseLost(this, cause);
+            }
+        }
+    }
+
+    private class Renewal implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                if (renew()) {
+                    long now = System.nanoTime();
+                    // Lock may have been obtained again since previous renewal, so lag is never negative.
+                    long lag = now - renewed - MILLISECONDS.toNanos(getRenewalInterval());
+                    renewed = now;
+                    getMetrics().renewed(getLockId(), max(lag, 0));
+                } else {
+                    fireLeaseLost(null);
+                }
+            } catch (LockException e) {
+                // Lease is still valid until its local deadline, so keep trying.
+                if (System.nanoTime() - deadline >= 0) {
+                    fireLeaseLost(e.getCause());
+                }
+            }
+        }
+    }
 }
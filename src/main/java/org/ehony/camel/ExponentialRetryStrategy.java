@@ -0,0 +1,38 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Retry strategy which doubles pause after every failed attempt up to given cap.
+ */
+public class ExponentialRetryStrategy implements RetryStrategy
+{
+
+    private long delay, maxDelay;
+
+    /**
+     * @param delay positive pause in msec before the first retry.
+     * @param maxDelay maximum pause in msec.
+     */
+    public ExponentialRetryStrategy(long delay, long maxDelay) {
+        isTrue(delay > 0, "Positive delay expected.");
+        isTrue(maxDelay >= delay, "Maximum delay must not be less than initial delay.");
+        this.delay = delay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long getDelay(int attempt, long previous) {
+        if (previous <= 0) {
+            return delay;
+        }
+        // Compare with half of the cap, so doubling never overflows.
+        return previous > maxDelay / 2 ? maxDelay : previous * 2;
+    }
+}
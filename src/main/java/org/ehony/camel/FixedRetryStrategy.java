@@ -0,0 +1,35 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Retry strategy which pauses for the same amount of time between attempts.
+ */
+public class FixedRetryStrategy implements RetryStrategy
+{
+
+    private long delay;
+
+    /**
+     * @param delay positive pause in msec.
+     */
+    public FixedRetryStrategy(long delay) {
+        isTrue(delay > 0, "Positive delay expected.");
+        this.delay = delay;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    @Override
+    public long getDelay(int attempt, long previous) {
+        return delay;
+    }
+}
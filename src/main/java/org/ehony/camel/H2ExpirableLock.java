@@ -0,0 +1,101 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+
+/**
+ * Expirable lock for H2 2.0 or later, which schema is provided in <code>schema-h2.sql</code>.
+ * <p>Queries read updated rows from data change delta tables, so fencing token
+ * is returned by the same statement. Parameters are bound in the order shared
+ * by dialects, see {@link ExpirableDatabaseLock#setParameters(Query, java.sql.PreparedStatement)}.</p>
+ */
+public class H2ExpirableLock extends ExpirableDatabaseLock
+{
+
+    /**
+     * Query to update record representing required lock which has already
+     * expired and belong non-exclusively to another consumer or which belongs to this consumer.
+     * <b>Returns</b> fencing token and remaining lease of the updated record.
+     */
+    public static final String UPDATE_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (update locks"
+                    + " set consumer_id = ?, expires = dateadd(millisecond, ?, localtimestamp), exclusive = ?,"
+                    + " token = case when consumer_id = ? and expires > localtimestamp then token else token + 1 end"
+                    + " where lock_id = ? and (consumer_id = ? or (expires <= localtimestamp and not exclusive)))";
+
+    /**
+     * Insert new lock record if one does not yet exist.
+     * <b>Returns</b> fencing token and remaining lease of the inserted record.
+     */
+    public static final String INSERT_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (insert into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token)"
+                    + " select ?, ?, dateadd(millisecond, ?, localtimestamp), ?, 1"
+                    + " where not exists (select * from locks where lock_id = ?))";
+
+    /**
+     * Atomically update or insert record representing required lock in a single statement.
+     * <b>Returns</b> fencing token and remaining lease of the updated or inserted record.
+     */
+    public static final String MERGE_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (merge into locks l"
+                    + " using (select cast(? as varchar(255)) as lock_id, cast(? as varchar(255)) as consumer_id,"
+                    + " dateadd(millisecond, ?, localtimestamp) as expires, cast(? as boolean) as exclusive) s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and (l.consumer_id = s.consumer_id or (l.expires <= localtimestamp and not l.exclusive))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = s.exclusive,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > localtimestamp then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token) values (s.lock_id, s.consumer_id, s.expires, s.exclusive, 1))";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer and has not expired yet.
+     * <b>Returns</b> fencing token and remaining lease of the renewed record.
+     */
+    public static final String RENEW_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (update locks"
+                    + " set expires = dateadd(millisecond, ?, localtimestamp)"
+                    + " where lock_id = ? and consumer_id = ? and expires > localtimestamp)";
+
+    public H2ExpirableLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    @Override
+    protected String getUpdateQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getInsertQuery() {
+        return INSERT_QUERY;
+    }
+
+    @Override
+    protected String getReleaseQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return MERGE_QUERY;
+    }
+
+    /**
+     * Queries report remaining lease computed by the database clock.
+     */
+    @Override
+    protected boolean isLeaseReported() {
+        return true;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
+    }
+}
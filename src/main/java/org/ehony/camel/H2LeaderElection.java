@@ -0,0 +1,63 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Election which records are kept in the locks table
+ * which schema is provided in <code>schema-h2.sql</code>.
+ */
+public class H2LeaderElection extends LeaderElection
+{
+
+    /**
+     * Query to select the leader record and heartbeat records of live members.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; escaped record identifier prefix followed by <code>%</code><br/>
+     * 2 &ndash; leader lock identifier
+     * </p>
+     * <b>Returns</b> identifiers, consumers and fencing tokens of records.
+     */
+    public static final String VIEW_QUERY =
+            "select lock_id, consumer_id, token from locks"
+                    + " where (lock_id like ? escape '\\' or lock_id = ?) and (expires > localtimestamp or exclusive)";
+
+    /**
+     * Create election of the leader among members of the group with a random member identifier.
+     */
+    public H2LeaderElection(DataSource dataSource, String groupId) {
+        this(dataSource, new H2Membership(dataSource, groupId));
+    }
+
+    public H2LeaderElection(DataSource dataSource, DatabaseMembership membership) {
+        super(dataSource, membership);
+    }
+
+    public H2LeaderElection(DataSource dataSource, DatabaseMembership membership, ScheduledExecutorService scheduler) {
+        super(dataSource, membership, scheduler);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createLock(DataSource dataSource, String lockId) {
+        return new H2ExpirableLock(dataSource, lockId);
+    }
+
+    @Override
+    protected String getViewQuery() {
+        return VIEW_QUERY;
+    }
+
+    @Override
+    protected void setViewParameters(PreparedStatement stmt, String prefix, String lockId) throws SQLException {
+        stmt.setString(1, DatabaseMembership.getPrefixPattern(prefix, H2Membership.WILDCARDS));
+        stmt.setString(2, lockId);
+    }
+}
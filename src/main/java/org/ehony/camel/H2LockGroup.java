@@ -0,0 +1,99 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+
+import static org.apache.commons.lang.StringUtils.repeat;
+
+/**
+ * Group of locks for H2 2.0 or later, which schema is provided in <code>schema-h2.sql</code>.
+ */
+public class H2LockGroup extends DatabaseLockGroup
+{
+
+    /**
+     * Query pattern to obtain or renew a group of locks with a single statement.
+     * <p>Updates records of locks which have already expired and belong non-exclusively
+     * to another consumer or which belong to this consumer, and inserts missing records.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2 &ndash; expiration timeout<br/>
+     * 3.. &ndash; lock identifiers, substituted for <code>{0}</code>
+     * </p>
+     * <b>Returns</b> identifier and fencing token of every obtained lock.
+     */
+    public static final String MERGE_QUERY =
+            "select lock_id, token from final table (merge into locks l"
+                    + " using (select v.lock_id, cast(? as varchar(255)) as consumer_id, dateadd(millisecond, ?, localtimestamp) as expires"
+                    + " from (values {0}) as v(lock_id) where v.lock_id is not null) s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and (l.consumer_id = s.consumer_id or (l.expires <= localtimestamp and not l.exclusive))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = false,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > localtimestamp then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token) values (s.lock_id, s.consumer_id, s.expires, false, 1))";
+
+    /**
+     * Query pattern to release a group of locks held by this consumer.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2.. &ndash; lock identifiers, substituted for <code>{0}</code>
+     * </p>
+     */
+    public static final String RELEASE_QUERY =
+            "update locks"
+                    + " set expires = dateadd(millisecond, -1, localtimestamp)"
+                    + " where consumer_id = ? and lock_id in ({0})";
+
+    private String acquireQuery, releaseQuery;
+
+    public H2LockGroup(DataSource dataSource, Collection<String> lockIds) {
+        super(dataSource, lockIds);
+        int count = getLockIds().size();
+        // Rows of the values table take their type from the first one.
+        acquireQuery = MERGE_QUERY.replace("{0}", "(cast(? as varchar(255)))" + repeat(", (?)", count - 1));
+        releaseQuery = RELEASE_QUERY.replace("{0}", repeat("?", ", ", count));
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return acquireQuery;
+    }
+
+    @Override
+    protected String getReleaseQuery() {
+        return releaseQuery;
+    }
+
+    @Override
+    protected void setAcquireParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException {
+        stmt.setString(1, getConsumerId());
+        stmt.setLong(2, getExpirationTimeout());
+        setLockIds(stmt, 3, lockIds);
+    }
+
+    @Override
+    protected void setReleaseParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException {
+        stmt.setString(1, getConsumerId());
+        setLockIds(stmt, 2, lockIds);
+    }
+
+    private static void setLockIds(PreparedStatement stmt, int offset, List<String> lockIds) throws SQLException {
+        for (int i = 0; i < lockIds.size(); i++) {
+            if (lockIds.get(i) == null) {
+                stmt.setNull(offset + i, Types.VARCHAR);
+            } else {
+                stmt.setString(offset + i, lockIds.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Reaper of the locks table which schema is provided in <code>schema-h2.sql</code>.
+ */
+public class H2LockReaper extends DatabaseLockReaper
+{
+
+    /**
+     * Query to delete a batch of records expired long ago.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; retention<br/>
+     * 2 &ndash; batch size
+     * </p>
+     */
+    public static final String REAP_QUERY =
+            "delete from locks"
+                    + " where expires < dateadd(millisecond, -cast(? as bigint), localtimestamp) and not exclusive"
+                    + " fetch first ? rows only";
+
+    public H2LockReaper(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    public H2LockReaper(DataSource dataSource, ScheduledExecutorService scheduler) {
+        super(dataSource, scheduler);
+    }
+
+    @Override
+    protected String getReapQuery() {
+        return REAP_QUERY;
+    }
+
+    @Override
+    protected void setReapParameters(PreparedStatement stmt, long retention, int batchSize) throws SQLException {
+        stmt.setLong(1, retention);
+        stmt.setInt(2, batchSize);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.UUID;
+
+/**
+ * Membership which heartbeat records are kept in the locks table
+ * which schema is provided in <code>schema-h2.sql</code>.
+ */
+public class H2Membership extends DatabaseMembership
+{
+
+    /**
+     * Query to select heartbeat records of live members.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; escaped record identifier prefix followed by <code>%</code>
+     * </p>
+     * <b>Returns</b> identifiers of heartbeat records.
+     */
+    public static final String MEMBERS_QUERY =
+            "select lock_id from locks"
+                    + " where lock_id like ? escape '\\' and expires > localtimestamp";
+
+    /**
+     * Characters which <code>like</code> patterns of H2 treat as wildcards.
+     */
+    static final String WILDCARDS = "%_";
+
+    /**
+     * Create membership with a random member identifier.
+     */
+    public H2Membership(DataSource dataSource, String groupId) {
+        this(dataSource, groupId, UUID.randomUUID().toString());
+    }
+
+    public H2Membership(DataSource dataSource, String groupId, String memberId) {
+        super(dataSource, groupId, memberId);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createRecord(DataSource dataSource, String recordId) {
+        return new H2ExpirableLock(dataSource, recordId);
+    }
+
+    @Override
+    protected String getMembersQuery() {
+        return MEMBERS_QUERY;
+    }
+
+    @Override
+    protected void setMembersParameters(PreparedStatement stmt, String prefix) throws SQLException {
+        stmt.setString(1, getPrefixPattern(prefix, WILDCARDS));
+    }
+}
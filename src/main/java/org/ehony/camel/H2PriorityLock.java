@@ -0,0 +1,202 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+import static java.lang.Math.max;
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Expirable lock for H2 2.0 or later which keeps leadership on preferred consumers.
+ * <p>Requires <code>priority</code> and <code>preempted</code> columns which are added
+ * to the schema provided in <code>schema-h2.sql</code> by <code>schema-h2-priority.sql</code>.
+ * Parameters are bound in the order of {@link TransactSqlPriorityLock}, see it for
+ * semantics of {@link #setPriority(int) priority}, {@link #setTakeoverDelay(long) takeover delay}
+ * and {@link #setPreemptive(boolean) preemption}.</p>
+ */
+public class H2PriorityLock extends H2ExpirableLock
+{
+
+    /**
+     * Query to update record representing required lock which belongs to this consumer
+     * and is not preempted, or which lease has expired at least the takeover delay ago.
+     * <b>Returns</b> fencing token and remaining lease of the updated record.
+     */
+    public static final String UPDATE_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (update locks"
+                    + " set consumer_id = ?, expires = dateadd(millisecond, ?, localtimestamp), exclusive = ?, priority = ?, preempted = false,"
+                    + " token = case when consumer_id = ? and expires > localtimestamp then token else token + 1 end"
+                    + " where lock_id = ? and ((consumer_id = ? and not preempted)"
+                    + " or (expires <= dateadd(millisecond, -cast(? as bigint), localtimestamp) and not exclusive)))";
+
+    /**
+     * Insert new lock record if one does not yet exist.
+     * <b>Returns</b> fencing token and remaining lease of the inserted record.
+     */
+    public static final String INSERT_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (insert into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token, priority)"
+                    + " select ?, ?, dateadd(millisecond, ?, localtimestamp), ?, 1, ?"
+                    + " where not exists (select * from locks where lock_id = ?))";
+
+    /**
+     * Atomically update or insert record representing required lock in a single statement.
+     * <b>Returns</b> fencing token and remaining lease of the updated or inserted record.
+     */
+    public static final String MERGE_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (merge into locks l"
+                    + " using (select cast(? as varchar(255)) as lock_id, cast(? as varchar(255)) as consumer_id,"
+                    + " dateadd(millisecond, ?, localtimestamp) as expires, cast(? as boolean) as exclusive,"
+                    + " cast(? as int) as priority, cast(? as bigint) as deferral) s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and ((l.consumer_id = s.consumer_id and not l.preempted)"
+                    + " or (l.expires <= dateadd(millisecond, -s.deferral, localtimestamp) and not l.exclusive))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = s.exclusive,"
+                    + " priority = s.priority, preempted = false,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > localtimestamp then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token, priority)"
+                    + " values (s.lock_id, s.consumer_id, s.expires, s.exclusive, 1, s.priority))";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer, has not expired yet
+     * and is not preempted.
+     * <b>Returns</b> fencing token and remaining lease of the renewed record.
+     */
+    public static final String RENEW_QUERY =
+            "select token, datediff(millisecond, localtimestamp, expires) from final table (update locks"
+                    + " set expires = dateadd(millisecond, ?, localtimestamp)"
+                    + " where lock_id = ? and consumer_id = ? and expires > localtimestamp and not preempted)";
+
+    /**
+     * Mark live non-exclusive lock held with lower priority by another consumer as preempted.
+     */
+    public static final String PREEMPT_QUERY =
+            "update locks set preempted = true"
+                    + " where lock_id = ? and consumer_id <> ? and priority < ?"
+                    + " and expires > localtimestamp and not exclusive and not preempted";
+
+    private int priority;
+    private long takeoverDelay;
+    private boolean preemptive;
+
+    public H2PriorityLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @see TransactSqlPriorityLock#setPriority(int)
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public long getTakeoverDelay() {
+        return takeoverDelay;
+    }
+
+    /**
+     * @see TransactSqlPriorityLock#setTakeoverDelay(long)
+     */
+    public void setTakeoverDelay(long delay) {
+        isTrue(delay >= 0, "Non-negative takeover delay expected.");
+        this.takeoverDelay = delay;
+    }
+
+    public boolean isPreemptive() {
+        return preemptive;
+    }
+
+    /**
+     * @see TransactSqlPriorityLock#setPreemptive(boolean)
+     */
+    public void setPreemptive(boolean preemptive) {
+        this.preemptive = preemptive;
+    }
+
+    @Override
+    protected String getUpdateQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getInsertQuery() {
+        return INSERT_QUERY;
+    }
+
+    /**
+     * Release is not affected by preemption, so preempted holder releases the lock immediately.
+     */
+    @Override
+    protected String getReleaseQuery() {
+        return H2ExpirableLock.UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return MERGE_QUERY;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
+    }
+
+    @Override
+    protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+        boolean exclusive = getExpirationTimeout() < 0;
+        long timeout = max(getExpirationTimeout(), 0);
+        switch (query) {
+            case UPDATE:
+                stmt.setString(1, getConsumerId());
+                stmt.setLong(2, timeout);
+                stmt.setBoolean(3, exclusive);
+                stmt.setInt(4, priority);
+                stmt.setString(5, getConsumerId());
+                stmt.setString(6, getLockId());
+                stmt.setString(7, getConsumerId());
+                stmt.setLong(8, takeoverDelay);
+                break;
+            case INSERT:
+                stmt.setString(1, getLockId());
+                stmt.setString(2, getConsumerId());
+                stmt.setLong(3, timeout);
+                stmt.setBoolean(4, exclusive);
+                stmt.setInt(5, priority);
+                stmt.setString(6, getLockId());
+                break;
+            case ACQUIRE:
+                super.setParameters(query, stmt);
+                stmt.setInt(5, priority);
+                stmt.setLong(6, takeoverDelay);
+                break;
+            default:
+                super.setParameters(query, stmt);
+        }
+    }
+
+    @Override
+    protected void onContended(Connection c) throws SQLException {
+        if (preemptive) {
+            PreparedStatement stmt = c.prepareStatement(PREEMPT_QUERY);
+            try {
+                stmt.setString(1, getLockId());
+                stmt.setString(2, getConsumerId());
+                stmt.setInt(3, priority);
+                stmt.executeUpdate();
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static java.lang.Math.max;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Release notifier which propagates releases between consumers in the same JVM.
+ */
+public class InMemoryLockReleaseNotifier implements LockReleaseNotifier
+{
+
+    private final ConcurrentMap<String, Signal> signals = new ConcurrentHashMap<String, Signal>();
+
+    /**
+     * Get signal of the lock and register its user, so signal is kept
+     * until every user has {@link #discard(String, Signal) discarded} it.
+     */
+    private Signal retain(String lockId) {
+        while (true) {
+            Signal signal = signals.get(lockId);
+            if (signal == null) {
+                Signal s = signals.putIfAbsent(lockId, signal = new Signal());
+                if (s != null) {
+                    signal = s;
+                }
+            }
+            synchronized (signal) {
+                if (!signal.discarded) {
+                    signal.users++;
+                    return signal;
+                }
+            }
+            // Signal was removed concurrently, so a new one is registered.
+        }
+    }
+
+    /**
+     * Unregister user of the signal and remove signal nobody waits for or listens to,
+     * so signals of locks which are not contended any more do not pile up.
+     */
+    private void discard(String lockId, Signal signal) {
+        synchronized (signal) {
+            if (--signal.users == 0) {
+                signal.discarded = true;
+                signals.remove(lockId, signal);
+            }
+        }
+    }
+
+    /**
+     * Get number of locks which have waiters or listeners.
+     */
+    int getSignalCount() {
+        return signals.size();
+    }
+
+    @Override
+    public void released(String lockId) {
+        Signal signal = signals.get(lockId);
+        if (signal == null) {
+            // Nobody waits for this lock.
+            return;
+        }
+        synchronized (signal) {
+            signal.generation++;
+            signal.notifyAll();
+        }
+        for (Runnable listener : signal.listeners) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public boolean awaitRelease(String lockId, long timeout) throws InterruptedException {
+        notEmpty(lockId, "Non-empty lock identifier expected.");
+        Signal signal = retain(lockId);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(max(timeout, 0));
+            synchronized (signal) {
+                long generation = signal.generation;
+                while (signal.generation == generation) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    signal.wait(remaining);
+                }
+            }
+            return true;
+        } finally {
+            discard(lockId, signal);
+        }
+    }
+
+    @Override
+    public void addListener(String lockId, Runnable listener) {
+        notEmpty(lockId, "Non-empty lock identifier expected.");
+        notNull(listener, "Expected listener.");
+        retain(lockId).listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(String lockId, Runnable listener) {
+        Signal signal = signals.get(lockId);
+        if (signal != null && signal.listeners.remove(listener)) {
+            discard(lockId, signal);
+        }
+    }
+
+    private static class Signal {
+
+        private long generation;
+        private int users;
+        private boolean discarded;
+        private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+    }
+}
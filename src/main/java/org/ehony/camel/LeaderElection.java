@@ -0,0 +1,427 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.slf4j.*;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.Collections.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Election of a single leader among members of the cluster.
+ * <p>Every member heartbeats its {@link DatabaseMembership membership} record and
+ * campaigns for the leader lock, which identifier is the group identifier and which
+ * consumer is the member identifier followed by a random incarnation suffix, so the
+ * leader is visible in the locks table. Every {@link #start() start} is a new incarnation,
+ * so a restarted member never re-enters the lease of its predecessor with the same
+ * fencing token and a zombie predecessor cannot release the lease of its successor.
+ * Once per {@link #setRefreshDelay(long) delay} the view of the cluster, which is
+ * the leader, its epoch and live members, is read with a single query and cached,
+ * so callers never query the database.</p>
+ * <p>Election must be {@link #start() started}, {@link #stop() stopping} it
+ * releases leadership and leaves the cluster.</p>
+ */
+public abstract class LeaderElection
+{
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderElection.class);
+
+    /**
+     * Separates member identifier from incarnation suffix in the consumer of the leader record.
+     */
+    public static final char INCARNATION_SEPARATOR = '#';
+
+    private DataSource dataSource;
+    private DatabaseMembership membership;
+    private ExpirableDatabaseLock lock;
+    private String prefix;
+    private ScheduledExecutorService scheduler;
+    private long delay = 1000;
+    private volatile View view = View.EMPTY;
+    private volatile boolean leading;
+    private boolean started;
+    private ScheduledFuture<?> refresh;
+    private List<LeaderListener> listeners = new CopyOnWriteArrayList<LeaderListener>();
+
+    /**
+     * Create election which refreshes its view in the {@link LockScheduler#getDefault() shared scheduler}.
+     *
+     * @param dataSource data source of the membership.
+     * @param membership membership of this consumer in the cluster.
+     */
+    protected LeaderElection(DataSource dataSource, DatabaseMembership membership) {
+        this(dataSource, membership, LockScheduler.getDefault());
+    }
+
+    /**
+     * @param dataSource data source of the membership.
+     * @param membership membership of this consumer in the cluster.
+     * @param scheduler scheduler to refresh view on.
+     */
+    protected LeaderElection(DataSource dataSource, DatabaseMembership membership, ScheduledExecutorService scheduler) {
+        notNull(dataSource, "Data source expected.");
+        notNull(membership, "Membership expected.");
+        notNull(scheduler, "Scheduler expected.");
+        this.dataSource = dataSource;
+        this.membership = membership;
+        this.scheduler = scheduler;
+        this.prefix = membership.getGroupId() + "@";
+        this.lock = createLock(dataSource, membership.getGroupId());
+        // Leader record tells which incarnation of which member leads.
+        incarnate();
+        lock.setRetryCount(0);
+    }
+
+    /**
+     * Create lock which is held by the leader.
+     * <p>Invoked from constructor, so implementation must not rely on
+     * state of the subclass.</p>
+     *
+     * @param dataSource data source of the membership.
+     * @param lockId identifier of the leader lock, which is the group identifier.
+     */
+    protected abstract ExpirableDatabaseLock createLock(DataSource dataSource, String lockId);
+
+    /**
+     * Get query which selects identifier, consumer and fencing token of the
+     * leader record and heartbeat records of the group which leases have not expired.
+     */
+    protected abstract String getViewQuery();
+
+    /**
+     * Bind parameters of the view query.
+     *
+     * @param stmt statement prepared from {@link #getViewQuery()}.
+     * @param prefix prefix of heartbeat record identifiers of the group.
+     * @param lockId identifier of the leader lock.
+     */
+    protected abstract void setViewParameters(PreparedStatement stmt, String prefix, String lockId) throws SQLException;
+
+    public DatabaseMembership getMembership() {
+        return membership;
+    }
+
+    public String getMemberId() {
+        return membership.getMemberId();
+    }
+
+    /**
+     * Get lock which is held by the leader.
+     */
+    public ExpirableDatabaseLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Set lease timeout of the leader lock.
+     * <p>Timeout bounds the time required to elect a new leader after the leader
+     * has failed without {@link #stop() stopping} the election.</p>
+     *
+     * @see ExpirableDatabaseLock#setExpirationTimeout(long)
+     */
+    public void setExpirationTimeout(long timeout) {
+        isTrue(timeout > 0, "Positive timeout expected.");
+        lock.setExpirationTimeout(timeout);
+    }
+
+    public long getRefreshDelay() {
+        return delay;
+    }
+
+    /**
+     * Set interval between heartbeats, campaigns and view refreshes.
+     * <p>Interval must be shorter than expiration timeouts of both membership
+     * and leader lock, otherwise leases expire between refreshes.</p>
+     *
+     * @param delay positive amount of msec.
+     */
+    public void setRefreshDelay(long delay) {
+        isTrue(delay > 0, "Positive refresh delay expected.");
+        this.delay = delay;
+    }
+
+    public void addLeaderListener(LeaderListener listener) {
+        notNull(listener, "Expected leader listener.");
+        listeners.add(listener);
+    }
+
+    public void removeLeaderListener(LeaderListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get view of the cluster cached by the latest refresh.
+     */
+    public View getView() {
+        return view;
+    }
+
+    /**
+     * Get identifier of the leading member as of the latest refresh.
+     * @return Leader identifier or <code>null</code> if there is no leader.
+     */
+    public String getLeaderId() {
+        return view.getLeaderId();
+    }
+
+    /**
+     * Get epoch of the current leader as of the latest refresh.
+     */
+    public long getEpoch() {
+        return view.getEpoch();
+    }
+
+    /**
+     * Get identifiers of live members as of the latest refresh.
+     */
+    public SortedSet<String> getMembers() {
+        return view.getMembers();
+    }
+
+    /**
+     * Check if this member holds the leader lock.
+     */
+    public boolean isLeader() {
+        return leading;
+    }
+
+    /**
+     * Start heartbeating, campaigning and refreshing the view.
+     */
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            if (lock.getHoldCount() == 0) {
+                incarnate();
+            }
+            schedule(0);
+        }
+    }
+
+    /**
+     * Campaign for the leader lock as a new incarnation of this member.
+     */
+    private void incarnate() {
+        lock.setConsumerId(membership.getMemberId() + INCARNATION_SEPARATOR + UUID.randomUUID());
+    }
+
+    /**
+     * Get identifier of the member which consumer holds the leader record.
+     */
+    private static String getMemberId(String consumerId) {
+        int separator = consumerId.lastIndexOf(INCARNATION_SEPARATOR);
+        return separator < 0 ? consumerId : consumerId.substring(0, separator);
+    }
+
+    /**
+     * Stop refreshing, resign leadership and leave the cluster.
+     * <p>Other members notice resignation on their next refresh.</p>
+     */
+    public synchronized void stop() {
+        started = false;
+        if (refresh != null) {
+            refresh.cancel(false);
+            refresh = null;
+        }
+        try {
+            resign();
+            membership.leave();
+        } finally {
+            view = View.EMPTY;
+        }
+    }
+
+    private synchronized void schedule(long delay) {
+        if (started) {
+            refresh = scheduler.schedule(new Refresh(), delay, MILLISECONDS);
+        }
+    }
+
+    /**
+     * Obtain or prolong the leader lock.
+     * @return <code>true</code> if this member leads.
+     */
+    private boolean campaign() {
+        if (lock.getHoldCount() > 0 && lock.renew()) {
+            return true;
+        }
+        if (!lock.tryLock()) {
+            return false;
+        }
+        // Leader keeps a single hold of the lock.
+        while (lock.getHoldCount() > 1) {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private void resign() {
+        try {
+            while (lock.getHoldCount() > 0) {
+                lock.unlock();
+            }
+        } catch (IllegalMonitorStateException e) {
+            // Lease has expired and may belong to the successor, which keeps it.
+        } finally {
+            lead(false);
+        }
+    }
+
+    private void lead(boolean leading) {
+        if (this.leading != leading) {
+            this.leading = leading;
+            lock.getMetrics().leadershipChanged(lock.getLockId(), leading);
+        }
+    }
+
+    /**
+     * Read the leader and live members with a single query.
+     */
+    private View read() {
+        String leaderId = null;
+        long epoch = 0;
+        SortedSet<String> members = new TreeSet<String>();
+        try {
+            Connection c = dataSource.getConnection();
+            try {
+                PreparedStatement stmt = c.prepareStatement(getViewQuery());
+                try {
+                    setViewParameters(stmt, prefix, lock.getLockId());
+                    ResultSet rs = stmt.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            String recordId = rs.getString(1);
+                            if (recordId.equals(lock.getLockId())) {
+                                leaderId = getMemberId(rs.getString(2));
+                                epoch = rs.getLong(3);
+                            } else if (recordId.startsWith(prefix)) {
+                                members.add(recordId.substring(prefix.length()));
+                            }
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            throw new LockException("Cannot read view of " + membership.getGroupId(), e);
+        }
+        View previous = view;
+        long elected = leaderId == null ? 0 : System.currentTimeMillis();
+        if (leaderId != null && leaderId.equals(previous.getLeaderId()) && epoch == previous.getEpoch()) {
+            elected = previous.getElectedAt();
+        }
+        return new View(leaderId, epoch, elected, unmodifiableSortedSet(members));
+    }
+
+    private class Refresh implements Runnable {
+
+        @Override
+        public void run() {
+            View previous = view, current = previous;
+            try {
+                synchronized (LeaderElection.this) {
+                    if (!started) {
+                        return;
+                    }
+                    if (!membership.heartbeat()) {
+                        throw new IllegalStateException("Member " + getMemberId() + " is already registered.");
+                    }
+                    lead(campaign());
+                    current = view = read();
+                }
+            } catch (Exception e) {
+                log.warn("Cannot refresh view of " + membership.getGroupId() + " by " + getMemberId(), e);
+                try {
+                    // Leader which cannot tell it is alive steps down.
+                    resign();
+                } catch (LockException ignored) {
+                    // Lease expires on its own.
+                }
+            } finally {
+                // Refreshes never overlap, since next one is scheduled after this one completes.
+                schedule(delay);
+            }
+            fire(previous, current);
+        }
+
+        private void fire(View previous, View current) {
+            boolean leaderChanged = current.getEpoch() != previous.getEpoch()
+                    || !String.valueOf(current.getLeaderId()).equals(String.valueOf(previous.getLeaderId()));
+            boolean membersChanged = !current.getMembers().equals(previous.getMembers());
+            for (LeaderListener listener : listeners) {
+                if (leaderChanged) {
+                    listener.leaderChanged(LeaderElection.this, current.getLeaderId(), current.getEpoch());
+                }
+                if (membersChanged) {
+                    listener.membersChanged(LeaderElection.this, current.getMembers());
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable view of the cluster.
+     */
+    public static class View {
+
+        static final View EMPTY = new View(null, 0, 0, unmodifiableSortedSet(new TreeSet<String>()));
+
+        private final String leaderId;
+        private final long epoch, electedAt;
+        private final SortedSet<String> members;
+
+        View(String leaderId, long epoch, long electedAt, SortedSet<String> members) {
+            this.leaderId = leaderId;
+            this.epoch = epoch;
+            this.electedAt = electedAt;
+            this.members = members;
+        }
+
+        /**
+         * Get identifier of the leading member.
+         * @return Leader identifier or <code>null</code> if there is no leader.
+         */
+        public String getLeaderId() {
+            return leaderId;
+        }
+
+        /**
+         * Get fencing token of the leader lock, which grows every time leadership changes hands.
+         */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        /**
+         * Get wall clock time when this member first observed the current leader and epoch.
+         * <p>Takeover happened at most one refresh delay earlier.</p>
+         *
+         * @return Amount of msec since epoch or zero if there is no leader.
+         */
+        public long getElectedAt() {
+            return electedAt;
+        }
+
+        /**
+         * Get identifiers of members which heartbeat records have not expired.
+         */
+        public SortedSet<String> getMembers() {
+            return members;
+        }
+    }
+}
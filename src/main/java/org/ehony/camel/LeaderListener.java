@@ -0,0 +1,35 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.SortedSet;
+
+/**
+ * Listener notified when the view of the {@link LeaderElection} changes.
+ * <p>Listeners are invoked from the refreshing thread one at a time, so they
+ * should return quickly.</p>
+ */
+public interface LeaderListener
+{
+
+    /**
+     * Invoked when leader or its epoch has changed.
+     *
+     * @param election election which view has changed.
+     * @param leaderId identifier of the leading member or <code>null</code> if there is no leader.
+     * @param epoch fencing token of the leader lock, grows every time leadership changes hands.
+     */
+    void leaderChanged(LeaderElection election, String leaderId, long epoch);
+
+    /**
+     * Invoked when members have joined or left the cluster.
+     *
+     * @param election election which view has changed.
+     * @param members identifiers of live members.
+     */
+    void membersChanged(LeaderElection election, SortedSet<String> members);
+}
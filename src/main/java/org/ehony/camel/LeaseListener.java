@@ -0,0 +1,25 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+/**
+ * Listener notified when lease of the expirable lock cannot be renewed.
+ */
+public interface LeaseListener
+{
+
+    /**
+     * Invoked when the lock lease was lost by its holder.
+     * <p>Listener should consider the lock as released, since another
+     * consumer is able to obtain it as soon as the lease expires.</p>
+     *
+     * @param lock lock which lease was lost.
+     * @param cause exception which caused renewal failure, or <code>null</code>
+     *              if lock no longer belongs to this consumer.
+     */
+    void leaseLost(ExpirableDatabaseLock lock, Throwable cause);
+}
@@ -0,0 +1,41 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Lock held on a lease which expires unless it is renewed.
+ * <p>Implemented by {@link ExpirableDatabaseLock} and by the permit view of
+ * {@link DatabaseSemaphore}, so route policies bound processing by the lease
+ * of either of them.</p>
+ */
+public interface LeasedLock extends Lock
+{
+
+    /**
+     * Get time left until the local lease deadline.
+     * @return Amount of msec, zero if lease is not held or <code>-1</code> for infinite timeout.
+     */
+    long getRemainingLease();
+
+    /**
+     * Get fencing token issued with the held lease.
+     * @return Fencing token or zero if no tokens are issued.
+     */
+    long getFencingToken();
+
+    /**
+     * Stop renewing the held lease, so it expires unless lock is released
+     * or obtained again before.
+     */
+    void stopRenewal();
+
+    void addLeaseListener(LeaseListener listener);
+
+    void removeLeaseListener(LeaseListener listener);
+}
@@ -0,0 +1,430 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Small pool of connections dedicated to lock operations.
+ * <p>Pool opens at most a few connections from the target data source and keeps
+ * them open, so lock polling does not compete with application traffic for
+ * the connections of the main pool and latency of lock operations stays stable
+ * when the main pool is saturated. Pool can be provided to any lock instead of
+ * the target data source; locks and groups may share a pool. Release notifiers
+ * which keep a connection listening, such as {@link PostgreSqlLockReleaseNotifier},
+ * must not use it, since the connection they hold is never returned.</p>
+ * <p>Connection is validated before it is handed out if it has been idle for longer
+ * than {@link #setValidationInterval(long) validation interval} or if its previous
+ * user encountered a connection failure, which is an {@link SQLException} of
+ * SQLState class <code>08</code>. Failures of statements, such as constraint
+ * violations, leave connection intact. Broken connections are closed and
+ * replaced by new ones. Prepared statements are cached per connection, so every
+ * lock query is prepared once per connection.</p>
+ */
+public class LockConnectionPool implements DataSource
+{
+
+    public static final int DEFAULT_POOL_SIZE = 1,
+                            DEFAULT_STATEMENT_CACHE_SIZE = 16;
+
+    private DataSource target;
+    private Semaphore permits;
+    private BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+    private long checkoutTimeout = 30000, validationInterval = 5000;
+    private int validationTimeout = 5, statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private volatile boolean closed;
+
+    /**
+     * Create pool with a single connection.
+     *
+     * @param target data source to open connections from.
+     */
+    public LockConnectionPool(DataSource target) {
+        this(target, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Create pool.
+     *
+     * @param target data source to open connections from.
+     * @param size positive maximum number of connections.
+     */
+    public LockConnectionPool(DataSource target, int size) {
+        notNull(target, "Data source expected.");
+        isTrue(size > 0, "Positive pool size expected.");
+        this.target = target;
+        this.permits = new Semaphore(size, true);
+    }
+
+    public long getCheckoutTimeout() {
+        return checkoutTimeout;
+    }
+
+    /**
+     * Set maximum time to wait for a connection when all of them are in use.
+     *
+     * @param timeout positive amount of msec.
+     */
+    public void setCheckoutTimeout(long timeout) {
+        isTrue(timeout > 0, "Positive timeout expected.");
+        this.checkoutTimeout = timeout;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Set idle time after which connection is validated before it is handed out.
+     *
+     * @param interval non-negative amount of msec, zero validates on every checkout.
+     */
+    public void setValidationInterval(long interval) {
+        isTrue(interval >= 0, "Non-negative interval expected.");
+        this.validationInterval = interval;
+    }
+
+    /**
+     * Set time to wait for the database to confirm that connection is valid.
+     *
+     * @param timeout positive amount of seconds.
+     */
+    public void setValidationTimeout(int timeout) {
+        isTrue(timeout > 0, "Positive timeout expected.");
+        this.validationTimeout = timeout;
+    }
+
+    /**
+     * Set maximum number of prepared statements cached per connection.
+     *
+     * @param size non-negative cache size, zero disables caching.
+     */
+    public void setStatementCacheSize(int size) {
+        isTrue(size >= 0, "Non-negative cache size expected.");
+        this.statementCacheSize = size;
+    }
+
+    /**
+     * Get number of open connections which are not in use.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Lock connection pool is closed.");
+        }
+        try {
+            if (!permits.tryAcquire(checkoutTimeout, MILLISECONDS)) {
+                throw new SQLException("No lock connection available in " + checkoutTimeout + " msec.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for lock connection.", e);
+        }
+        try {
+            return checkout().open();
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Take most recently used valid connection or open a new one.
+     */
+    private PooledConnection checkout() throws SQLException {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            if (pc.validate()) {
+                return pc;
+            }
+            pc.destroy();
+        }
+        return new PooledConnection(target.getConnection());
+    }
+
+    private void checkin(PooledConnection pc) {
+        try {
+            if (closed) {
+                pc.destroy();
+            } else {
+                pc.returned = System.nanoTime();
+                idle.addFirst(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close idle connections and refuse new checkouts.
+     * <p>Connections in use are closed when they are returned.</p>
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            pc.destroy();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Lock connections use credentials of the target data source.");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) throws SQLException {
+        if (type.isInstance(this)) {
+            return type.cast(this);
+        }
+        return target.unwrap(type);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> type) throws SQLException {
+        return type.isInstance(this) || target.isWrapperFor(type);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Physical connection with its cache of prepared statements.
+     */
+    private class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+        private volatile boolean broken;
+        private long returned = System.nanoTime();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        boolean validate() {
+            if (!broken && System.nanoTime() - returned < MILLISECONDS.toNanos(validationInterval)) {
+                return true;
+            }
+            try {
+                broken = !connection.isValid(validationTimeout);
+            } catch (SQLException e) {
+                broken = true;
+            }
+            return !broken;
+        }
+
+        /**
+         * Mark connection broken if the failure is a connection exception.
+         */
+        private void fail(SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                broken = true;
+            }
+        }
+
+        void destroy() {
+            for (PreparedStatement stmt : statements.values()) {
+                closeQuietly(stmt);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // Connection is already broken.
+            }
+        }
+
+        /**
+         * Hand out connection which returns to the pool when closed.
+         */
+        Connection open() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, new InvocationHandler() {
+
+                private boolean closed;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (method.getDeclaringClass() == Object.class) {
+                        return invokeObject(proxy, method, args);
+                    }
+                    if (name.equals("close")) {
+                        if (!closed) {
+                            closed = true;
+                            release();
+                        }
+                        return null;
+                    }
+                    if (name.equals("isClosed")) {
+                        return closed || connection.isClosed();
+                    }
+                    if (closed) {
+                        throw new SQLException("Connection is closed.");
+                    }
+                    if (name.equals("prepareStatement") && statementCacheSize > 0 && args.length <= 2
+                            && (args.length == 1 || args[1] instanceof Integer)) {
+                        return prepare(proxy, (String) args[0], args.length == 1 ? Statement.NO_GENERATED_KEYS : (Integer) args[1]);
+                    }
+                    try {
+                        return LockConnectionPool.invoke(connection, method, args);
+                    } catch (SQLException e) {
+                        fail(e);
+                        throw e;
+                    }
+                }
+            });
+        }
+
+        private void release() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    // Do not leak transaction of the previous user.
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                broken = true;
+            }
+            checkin(this);
+        }
+
+        private PreparedStatement prepare(final Object owner, String sql, int keys) throws SQLException {
+            String key = keys + ":" + sql;
+            PreparedStatement stmt = statements.remove(key);
+            try {
+                if (stmt == null) {
+                    stmt = keys == Statement.NO_GENERATED_KEYS ? connection.prepareStatement(sql) : connection.prepareStatement(sql, keys);
+                }
+            } catch (SQLException e) {
+                fail(e);
+                throw e;
+            }
+            return cache(owner, key, stmt);
+        }
+
+        /**
+         * Wrap statement which returns to the cache when closed.
+         */
+        private PreparedStatement cache(final Object owner, final String key, final PreparedStatement stmt) {
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+
+                private boolean closed, failed;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (method.getDeclaringClass() == Object.class) {
+                        return invokeObject(proxy, method, args);
+                    }
+                    if (name.equals("close")) {
+                        if (!closed) {
+                            closed = true;
+                            if (failed || broken) {
+                                closeQuietly(stmt);
+                            } else {
+                                stmt.clearParameters();
+                                statements.put(key, stmt);
+                            }
+                        }
+                        return null;
+                    }
+                    if (name.equals("isClosed")) {
+                        return closed;
+                    }
+                    if (name.equals("getConnection")) {
+                        return owner;
+                    }
+                    try {
+                        return LockConnectionPool.invoke(stmt, method, args);
+                    } catch (SQLException e) {
+                        failed = true;
+                        fail(e);
+                        throw e;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Invoke method of {@link Object} on the proxy itself.
+     */
+    private static Object invokeObject(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("equals")) {
+            return proxy == args[0];
+        }
+        if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        return proxy.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            // Statement will be closed with connection.
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hold of the database lock obtained via {@link DatabaseLock#acquireAsync(long)}.
+ * <p>Each lease removes exactly one hold of the lock when released,
+ * so releasing it more than once has no effect.</p>
+ */
+public class LockLease
+{
+
+    private final DatabaseLock lock;
+    private final long token;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    LockLease(DatabaseLock lock, long token) {
+        this.lock = lock;
+        this.token = token;
+    }
+
+    /**
+     * Get lock this lease belongs to.
+     */
+    public DatabaseLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Get fencing token issued when this lease was obtained.
+     */
+    public long getFencingToken() {
+        return token;
+    }
+
+    /**
+     * Check if lease was released via {@link #release()}.
+     */
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * Release the lease without blocking the calling thread.
+     *
+     * @return Future completed when hold of the lock is removed.
+     */
+    public CompletableFuture<Void> release() {
+        if (!released.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return lock.releaseAsync();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+/**
+ * Instrumentation of locks and route policies.
+ * <p>Methods are invoked on the lock hot path, so implementations must be
+ * thread-safe and cheap. Arguments are primitives or strings held by the
+ * caller, so recording allocates nothing unless implementation does.</p>
+ *
+ * @see NoopLockMetrics
+ * @see ManagedLockMetrics
+ */
+public interface LockMetrics
+{
+
+    /**
+     * Lock was obtained.
+     *
+     * @param lockId identifier of the lock.
+     * @param attempts number of attempts made, including the successful one.
+     * @param nanos time spent obtaining the lock.
+     */
+    void acquired(String lockId, int attempts, long nanos);
+
+    /**
+     * Consumer gave up obtaining the lock.
+     *
+     * @param lockId identifier of the lock.
+     * @param attempts number of failed attempts.
+     * @param nanos time spent trying to obtain the lock.
+     */
+    void acquireFailed(String lockId, int attempts, long nanos);
+
+    /**
+     * Lock record was not updated, so insert was attempted.
+     *
+     * @param lockId identifier of the lock.
+     */
+    void insertAttempted(String lockId);
+
+    /**
+     * Lock operation failed with {@link LockException}.
+     *
+     * @param lockId identifier of the lock.
+     */
+    void failed(String lockId);
+
+    /**
+     * Lease of the lock was renewed.
+     *
+     * @param lockId identifier of the lock.
+     * @param lagNanos delay of the renewal after its scheduled time.
+     */
+    void renewed(String lockId, long lagNanos);
+
+    /**
+     * Lock was released by its holder.
+     *
+     * @param lockId identifier of the lock.
+     * @param heldNanos time the lock was held.
+     */
+    void released(String lockId, long heldNanos);
+
+    /**
+     * Route policy became leader or lost leadership.
+     *
+     * @param lockId identifier of the lock.
+     * @param leading <code>true</code> if policy obtained the lock.
+     */
+    void leadershipChanged(String lockId, boolean leading);
+
+    /**
+     * Route policy started the route after obtaining the lock.
+     *
+     * @param lockId identifier of the lock.
+     * @param routeId identifier of the route.
+     * @param nanos time spent starting the route.
+     */
+    void routeStarted(String lockId, String routeId, long nanos);
+
+    /**
+     * Route policy stopped the route after losing the lock.
+     *
+     * @param lockId identifier of the lock.
+     * @param routeId identifier of the route.
+     * @param nanos time spent stopping the route.
+     */
+    void routeStopped(String lockId, String routeId, long nanos);
+}
@@ -0,0 +1,45 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+/**
+ * Channel which propagates lock releases to consumers waiting for the lock,
+ * so they do not have to wait for the next poll.
+ * <p>Notifications are best-effort: waiters keep polling the lock with the
+ * pause used as a timeout, so a lost notification only delays acquisition.</p>
+ */
+public interface LockReleaseNotifier
+{
+
+    /**
+     * Notify consumers waiting for the lock that it was released.
+     *
+     * @param lockId identifier of the released lock.
+     */
+    void released(String lockId);
+
+    /**
+     * Block current thread until the lock is released or timeout elapses.
+     *
+     * @param lockId identifier of the lock.
+     * @param timeout maximum amount of msec to wait.
+     * @return <code>true</code> if release was notified, <code>false</code> if timeout elapsed.
+     */
+    boolean awaitRelease(String lockId, long timeout) throws InterruptedException;
+
+    /**
+     * Register listener invoked every time the lock is released.
+     * <p>Listener is invoked in the thread which delivers notification,
+     * so it should not block.</p>
+     *
+     * @param lockId identifier of the lock.
+     * @param listener release listener.
+     */
+    void addListener(String lockId, Runnable listener);
+
+    void removeListener(String lockId, Runnable listener);
+}
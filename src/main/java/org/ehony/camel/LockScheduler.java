@@ -0,0 +1,108 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Small pool of daemon threads which multiplexes periodic lock checks,
+ * such as lock monitors of {@link SerialAccessRoutePolicy} and lease renewals
+ * of {@link ExpirableDatabaseLock}.
+ * <p>Tasks do not occupy threads between runs, so any number of route policies
+ * can share the same scheduler instead of keeping a sleeping thread per policy.</p>
+ */
+public class LockScheduler extends ScheduledThreadPoolExecutor
+{
+
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    private static LockScheduler defaultScheduler;
+    private static ExecutorService drainPool;
+
+    /**
+     * Create scheduler with {@link #DEFAULT_POOL_SIZE default} number of threads.
+     */
+    public LockScheduler() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Create scheduler.
+     * <p>Pool size should cover the number of lock checks which may block
+     * simultaneously, e.g. while starting or stopping routes.</p>
+     *
+     * @param poolSize positive number of threads.
+     */
+    public LockScheduler(int poolSize) {
+        super(poolSize, new DaemonThreadFactory("LockScheduler-"));
+        isTrue(poolSize > 0, "Expected positive pool size.");
+        // Cancelled checks should not pile up in the queue.
+        setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Get scheduler shared by route policies created without explicit thread pool.
+     * <p>Scheduler is created on demand and re-created if it was shut down.</p>
+     */
+    public static synchronized LockScheduler getDefault() {
+        if (defaultScheduler == null || defaultScheduler.isShutdown()) {
+            defaultScheduler = new LockScheduler();
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Get pool in which route policies monitored by schedulers hand routes over.
+     * <p>Handover waits for inflight exchanges, so it runs in threads created on
+     * demand instead of blocking threads of a scheduler. Pool is created on demand
+     * and re-created if it was shut down.</p>
+     */
+    public static synchronized ExecutorService getDrainPool() {
+        if (drainPool == null || drainPool.isShutdown()) {
+            drainPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DaemonThreadFactory("LockDrain-"));
+        }
+        return drainPool;
+    }
+
+    /**
+     * Shut down default scheduler and drain pool if they were ever created.
+     * <p>Pending lock checks are cancelled, so route policies using default
+     * scheduler stop monitoring their locks.</p>
+     */
+    public static synchronized void shutdownDefault() {
+        if (defaultScheduler != null) {
+            defaultScheduler.shutdownNow();
+            defaultScheduler = null;
+        }
+        if (drainPool != null) {
+            drainPool.shutdownNow();
+            drainPool = null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + count.incrementAndGet());
+            // Locking threads should not prevent JVM from exiting.
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.spi.ManagementAgent;
+import org.slf4j.*;
+
+import javax.management.*;
+import java.util.concurrent.*;
+
+import static org.apache.camel.util.ObjectHelper.notNull;
+
+/**
+ * Metrics which collect {@link ManagedLockStatistics} per lock and expose
+ * them as MBeans of the Camel management layer.
+ * <p>MBeans are registered as <code>&lt;domain&gt;:context=&lt;management name&gt;,type=locks,name=&lt;lock id&gt;</code>
+ * when lock is first recorded. If management is disabled in Camel context,
+ * statistics are still collected and available via {@link #getStatistics(String)}.</p>
+ * <p>MBeans are unregistered by {@link #remove(String)} or {@link #close()},
+ * which should be invoked before Camel context is stopped.</p>
+ */
+public class ManagedLockMetrics implements LockMetrics
+{
+
+    private static final Logger log = LoggerFactory.getLogger(ManagedLockMetrics.class);
+
+    private final CamelContext context;
+    private final ConcurrentMap<String, ManagedLockStatistics> statistics = new ConcurrentHashMap<String, ManagedLockStatistics>();
+
+    public ManagedLockMetrics(CamelContext context) {
+        notNull(context, "Expected Camel context.");
+        this.context = context;
+    }
+
+    /**
+     * Get statistics of the lock, registering its MBean on first access.
+     */
+    public ManagedLockStatistics getStatistics(String lockId) {
+        ManagedLockStatistics stats = statistics.get(lockId);
+        if (stats == null) {
+            ManagedLockStatistics s = statistics.putIfAbsent(lockId, stats = new ManagedLockStatistics(lockId));
+            if (s != null) {
+                return s;
+            }
+            manage(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Stop collecting statistics of the lock and unregister its MBean.
+     */
+    public void remove(String lockId) {
+        ManagedLockStatistics stats = statistics.remove(lockId);
+        if (stats != null) {
+            unmanage(stats);
+        }
+    }
+
+    /**
+     * Stop collecting statistics of all locks and unregister their MBeans.
+     */
+    public void close() {
+        for (String lockId : statistics.keySet()) {
+            remove(lockId);
+        }
+    }
+
+    /**
+     * Get name of the MBean of the lock statistics.
+     * @return Object name or <code>null</code> if management is disabled.
+     */
+    private ObjectName getObjectName(ManagedLockStatistics stats) throws MalformedObjectNameException {
+        ManagementAgent agent = context.getManagementStrategy().getManagementAgent();
+        if (agent == null) {
+            // Management is disabled.
+            return null;
+        }
+        return new ObjectName(agent.getMBeanObjectDomainName()
+                + ":context=" + ObjectName.quote(context.getManagementName())
+                + ",type=locks,name=" + ObjectName.quote(stats.getLockId()));
+    }
+
+    private void manage(ManagedLockStatistics stats) {
+        try {
+            ObjectName name = getObjectName(stats);
+            if (name != null) {
+                context.getManagementStrategy().manageNamedObject(stats, name);
+            }
+        } catch (Exception e) {
+            log.warn("Cannot register statistics of lock " + stats.getLockId(), e);
+        }
+    }
+
+    private void unmanage(ManagedLockStatistics stats) {
+        try {
+            ObjectName name = getObjectName(stats);
+            if (name != null) {
+                context.getManagementStrategy().unmanageNamedObject(name);
+            }
+        } catch (Exception e) {
+            log.warn("Cannot unregister statistics of lock " + stats.getLockId(), e);
+        }
+    }
+
+    @Override
+    public void acquired(String lockId, int attempts, long nanos) {
+        getStatistics(lockId).acquired(attempts, nanos);
+    }
+
+    @Override
+    public void acquireFailed(String lockId, int attempts, long nanos) {
+        getStatistics(lockId).acquireFailed();
+    }
+
+    @Override
+    public void insertAttempted(String lockId) {
+        getStatistics(lockId).insertAttempted();
+    }
+
+    @Override
+    public void failed(String lockId) {
+        getStatistics(lockId).failed();
+    }
+
+    @Override
+    public void renewed(String lockId, long lagNanos) {
+        getStatistics(lockId).renewed(lagNanos);
+    }
+
+    @Override
+    public void released(String lockId, long heldNanos) {
+        getStatistics(lockId).released(heldNanos);
+    }
+
+    @Override
+    public void leadershipChanged(String lockId, boolean leading) {
+        getStatistics(lockId).leadershipChanged(leading);
+    }
+
+    @Override
+    public void routeStarted(String lockId, String routeId, long nanos) {
+        getStatistics(lockId).routeStarted(nanos);
+    }
+
+    @Override
+    public void routeStopped(String lockId, String routeId, long nanos) {
+        getStatistics(lockId).routeStopped(nanos);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.api.management.*;
+
+import java.util.concurrent.atomic.*;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Statistics of a single lock exposed via JMX.
+ */
+@ManagedResource(description = "Managed Lock Statistics")
+public class ManagedLockStatistics
+{
+
+    private final String lockId;
+    private final Histogram acquireTime = new Histogram(),
+                            renewalLag = new Histogram(),
+                            heldTime = new Histogram(),
+                            routeStartTime = new Histogram(),
+                            routeStopTime = new Histogram();
+    private final AtomicLong attempts = new AtomicLong(),
+                             acquireFailures = new AtomicLong(),
+                             inserts = new AtomicLong(),
+                             failures = new AtomicLong(),
+                             leaderChanges = new AtomicLong();
+    private volatile boolean leading;
+
+    public ManagedLockStatistics(String lockId) {
+        this.lockId = lockId;
+    }
+
+    void acquired(int attempts, long nanos) {
+        this.attempts.addAndGet(attempts);
+        acquireTime.record(nanos);
+    }
+
+    void acquireFailed() {
+        acquireFailures.incrementAndGet();
+    }
+
+    void insertAttempted() {
+        inserts.incrementAndGet();
+    }
+
+    void failed() {
+        failures.incrementAndGet();
+    }
+
+    void renewed(long lagNanos) {
+        renewalLag.record(lagNanos);
+    }
+
+    void released(long heldNanos) {
+        heldTime.record(heldNanos);
+    }
+
+    void leadershipChanged(boolean leading) {
+        this.leading = leading;
+        leaderChanges.incrementAndGet();
+    }
+
+    void routeStarted(long nanos) {
+        routeStartTime.record(nanos);
+    }
+
+    void routeStopped(long nanos) {
+        routeStopTime.record(nanos);
+    }
+
+    @ManagedAttribute(description = "Lock identifier")
+    public String getLockId() {
+        return lockId;
+    }
+
+    @ManagedAttribute(description = "Number of times lock was obtained")
+    public long getAcquireCount() {
+        return acquireTime.getCount();
+    }
+
+    @ManagedAttribute(description = "Number of times consumer gave up obtaining lock")
+    public long getAcquireFailedCount() {
+        return acquireFailures.get();
+    }
+
+    @ManagedAttribute(description = "Mean time to obtain lock in msec")
+    public double getAcquireMeanTime() {
+        return acquireTime.getMean();
+    }
+
+    @ManagedAttribute(description = "Maximum time to obtain lock in msec")
+    public double getAcquireMaxTime() {
+        return acquireTime.getMax();
+    }
+
+    @ManagedAttribute(description = "Median time to obtain lock in msec")
+    public double getAcquire50thPercentileTime() {
+        return acquireTime.getPercentile(0.5);
+    }
+
+    @ManagedAttribute(description = "99th percentile of time to obtain lock in msec")
+    public double getAcquire99thPercentileTime() {
+        return acquireTime.getPercentile(0.99);
+    }
+
+    @ManagedAttribute(description = "Mean number of attempts per obtained lock")
+    public double getAttemptsPerAcquire() {
+        long count = acquireTime.getCount();
+        return count == 0 ? 0 : (double) attempts.get() / count;
+    }
+
+    @ManagedAttribute(description = "Number of times lock record was inserted after update missed")
+    public long getInsertCount() {
+        return inserts.get();
+    }
+
+    @ManagedAttribute(description = "Number of lock exceptions")
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @ManagedAttribute(description = "Number of lease renewals")
+    public long getRenewalCount() {
+        return renewalLag.getCount();
+    }
+
+    @ManagedAttribute(description = "Mean delay of lease renewals in msec")
+    public double getRenewalMeanLag() {
+        return renewalLag.getMean();
+    }
+
+    @ManagedAttribute(description = "Maximum delay of lease renewals in msec")
+    public double getRenewalMaxLag() {
+        return renewalLag.getMax();
+    }
+
+    @ManagedAttribute(description = "Number of times lock was released")
+    public long getReleaseCount() {
+        return heldTime.getCount();
+    }
+
+    @ManagedAttribute(description = "Mean time lock was held in msec")
+    public double getHeldMeanTime() {
+        return heldTime.getMean();
+    }
+
+    @ManagedAttribute(description = "Whether route policy holds the lock")
+    public boolean isLeading() {
+        return leading;
+    }
+
+    @ManagedAttribute(description = "Number of times route policy obtained or lost the lock")
+    public long getLeaderChangeCount() {
+        return leaderChanges.get();
+    }
+
+    @ManagedAttribute(description = "Mean time to start routes in msec")
+    public double getRouteStartMeanTime() {
+        return routeStartTime.getMean();
+    }
+
+    @ManagedAttribute(description = "Mean time to stop routes in msec")
+    public double getRouteStopMeanTime() {
+        return routeStopTime.getMean();
+    }
+
+    @ManagedOperation(description = "Reset statistics")
+    public void reset() {
+        acquireTime.reset();
+        renewalLag.reset();
+        heldTime.reset();
+        routeStartTime.reset();
+        routeStopTime.reset();
+        attempts.set(0);
+        acquireFailures.set(0);
+        inserts.set(0);
+        failures.set(0);
+        leaderChanges.set(0);
+    }
+
+    /**
+     * Lock-free histogram of durations with power-of-two microsecond buckets.
+     */
+    static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong(),
+                                 total = new AtomicLong(),
+                                 max = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = NANOSECONDS.toMicros(Math.max(nanos, 0));
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+                // Retry until maximum is updated.
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : toMillis(total.get() / n);
+        }
+
+        double getMax() {
+            return toMillis(max.get());
+        }
+
+        /**
+         * Get upper bound of the bucket which contains given percentile.
+         */
+        double getPercentile(double percentile) {
+            long n = count.get(), seen = 0;
+            if (n == 0) {
+                return 0;
+            }
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= percentile * n) {
+                    return toMillis(MICROSECONDS.toNanos(1L << i));
+                }
+            }
+            return getMax();
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
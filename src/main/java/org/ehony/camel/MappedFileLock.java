@@ -0,0 +1,345 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+
+import static java.lang.Math.*;
+import static java.lang.Thread.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Expirable lock shared by processes of a single host via memory-mapped file.
+ * <p>Lease record is kept in the file and is read and written under
+ * {@link FileChannel#lock() file lock}, so obtaining the lock costs a few
+ * microseconds and requires no database. Expiration timeout, exclusiveness
+ * and fencing token follow semantics of {@link ExpirableDatabaseLock}.</p>
+ * <p>Leases are measured by the wall clock, since it is the clock shared by
+ * processes of the host, while {@link System#nanoTime()} origin differs per process.
+ * Lock is re-entrant, so it can be provided to {@link SerialAccessRoutePolicy}.</p>
+ */
+public class MappedFileLock implements Lock, Closeable
+{
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Layout of the lease record.
+     */
+    private static final int EXPIRES = 0, TOKEN = 8, EXCLUSIVE = 16, CONSUMER_LENGTH = 17, CONSUMER = 19, SIZE = 512;
+
+    /**
+     * File locks are held on behalf of the whole process, so lock instances
+     * sharing a file within this process are serialised by a common monitor.
+     */
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<String, Object>();
+
+    private File file;
+    private String consumerId = UUID.randomUUID().toString();
+    private long timeout = 60000, delay = 1000;
+    private volatile long token;
+    private final AtomicInteger holds = new AtomicInteger();
+    private Object monitor;
+    private FileChannel channel;
+    private MappedByteBuffer record;
+
+    /**
+     * Create lock which lease record is kept in the given file.
+     * <p>File is created on first use. Processes sharing the lock must use the same file.</p>
+     *
+     * @param file file to keep lease record in.
+     */
+    public MappedFileLock(File file) {
+        notNull(file, "File expected.");
+        try {
+            this.file = file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new LockException("Cannot resolve lock file " + file, e);
+        }
+        Object monitor = new Object(), existing = MONITORS.putIfAbsent(this.file.getPath(), monitor);
+        this.monitor = existing == null ? monitor : existing;
+    }
+
+    /**
+     * Get file which keeps lease record.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get unique identifier used to distinguish lock consumers.
+     */
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    /**
+     * Get lock expiration timeout exploited by this consumer.
+     * @return For infinite timeout <code>-1</code> is returned, otherwise positive amount of msec.
+     */
+    public long getExpirationTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set lock lease timeout for this consumer.
+     * <p>Providing negative value causes infinite timeout, so lock can be
+     * obtained by another consumer only after explicit {@link #unlock()}.</p>
+     *
+     * @param timeout lock lease timeout.
+     */
+    public void setExpirationTimeout(long timeout) {
+        isTrue(timeout != 0, "Zero timeout prohibited.");
+        this.timeout = max(-1, timeout);
+    }
+
+    public long getRetryDelay() {
+        return delay;
+    }
+
+    /**
+     * Set delay between attempts of blocking acquisitions.
+     * @param delay positive amount of msec.
+     */
+    public void setRetryDelay(long delay) {
+        isTrue(delay > 0, "Positive delay expected.");
+        this.delay = delay;
+    }
+
+    /**
+     * Get fencing token of the lock issued when this consumer obtained it.
+     * <p>Token grows monotonically every time the lock changes hands.</p>
+     *
+     * @return Fencing token or zero if lock was never obtained.
+     */
+    public long getFencingToken() {
+        return token;
+    }
+
+    /**
+     * Get number of holds on this lock by this consumer.
+     */
+    public int getHoldCount() {
+        return holds.get();
+    }
+
+    /**
+     * Get time left until lease of this consumer expires.
+     * @return Amount of msec, zero if lock is not held by this consumer or <code>-1</code> for infinite lease.
+     */
+    public long getRemainingLease() {
+        synchronized (monitor) {
+            FileLock lock = lockFile();
+            try {
+                if (!isOwner()) {
+                    return 0;
+                }
+                if (record.get(EXCLUSIVE) != 0) {
+                    return -1;
+                }
+                return max(0, record.getLong(EXPIRES) - System.currentTimeMillis());
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * Tries to obtain the lock or prolong lease of this consumer.
+     * <p>Lock is obtained if it belongs to this consumer or its lease
+     * has expired and it is not exclusive.</p>
+     */
+    private boolean obtainLock() {
+        synchronized (monitor) {
+            FileLock lock = lockFile();
+            try {
+                long now = System.currentTimeMillis();
+                boolean owner = isOwner(), live = record.get(EXCLUSIVE) != 0 || record.getLong(EXPIRES) > now;
+                if (!owner && live) {
+                    // Lock belongs to another consumer, so holds are void.
+                    holds.set(0);
+                    return false;
+                }
+                long token = record.getLong(TOKEN);
+                if (!owner || !live) {
+                    token++;
+                    record.putLong(TOKEN, token);
+                    setOwner();
+                }
+                record.putLong(EXPIRES, timeout < 0 ? Long.MAX_VALUE : now + timeout);
+                record.put(EXCLUSIVE, (byte) (timeout < 0 ? 1 : 0));
+                this.token = token;
+                holds.incrementAndGet();
+                return true;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * Prolong lease of the lock held by this consumer.
+     *
+     * @return <code>true</code> if lease was prolonged, <code>false</code>
+     * if lock does not belong to this consumer anymore.
+     */
+    public boolean renew() {
+        synchronized (monitor) {
+            FileLock lock = lockFile();
+            try {
+                long now = System.currentTimeMillis();
+                if (!isOwner() || (record.get(EXCLUSIVE) == 0 && record.getLong(EXPIRES) <= now)) {
+                    return false;
+                }
+                if (timeout > 0) {
+                    record.putLong(EXPIRES, now + timeout);
+                }
+                return true;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    @Override
+    public void lock() {
+        while (!obtainLock()) {
+            pause(delay);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        while (!obtainLock()) {
+            sleep(delay);
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        return obtainLock();
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        while (!obtainLock()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            NANOSECONDS.sleep(min(remaining, MILLISECONDS.toNanos(delay)));
+        }
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        for (int count = holds.get(); count > 1; count = holds.get()) {
+            if (holds.compareAndSet(count, count - 1)) {
+                // Lock is still held by this consumer.
+                return;
+            }
+        }
+        holds.set(0);
+        synchronized (monitor) {
+            FileLock lock = lockFile();
+            try {
+                if (!isOwner()) {
+                    throw new IllegalMonitorStateException();
+                }
+                // Release moves expiration to the past.
+                record.putLong(EXPIRES, System.currentTimeMillis() - 1);
+                record.put(EXCLUSIVE, (byte) 0);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Close the file keeping lease record.
+     * <p>Lease held by this consumer is not released and expires on its own.</p>
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (monitor) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                record = null;
+            }
+        }
+    }
+
+    /**
+     * Lock the file, mapping it on first use.
+     */
+    private FileLock lockFile() {
+        try {
+            if (channel == null) {
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                record = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            }
+            return channel.lock(0, SIZE, false);
+        } catch (IOException e) {
+            throw new LockException("Cannot lock file " + file + " by " + consumerId, e);
+        }
+    }
+
+    private void release(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            throw new LockException("Cannot unlock file " + file + " by " + consumerId, e);
+        }
+    }
+
+    /**
+     * Check if lease record belongs to this consumer.
+     */
+    private boolean isOwner() {
+        byte[] bytes = new byte[record.getShort(CONSUMER_LENGTH)];
+        ByteBuffer consumer = record.duplicate();
+        consumer.position(CONSUMER);
+        consumer.get(bytes);
+        return consumerId.equals(new String(bytes, UTF_8));
+    }
+
+    private void setOwner() {
+        byte[] bytes = consumerId.getBytes(UTF_8);
+        ByteBuffer consumer = record.duplicate();
+        consumer.position(CONSUMER);
+        consumer.put(bytes);
+        record.putShort(CONSUMER_LENGTH, (short) bytes.length);
+    }
+
+    /**
+     * Pauses this thread for given amount of msec.
+     */
+    private static void pause(long delay) {
+        try {
+            sleep(delay);
+        } catch (InterruptedException ie) {
+            currentThread().interrupt();
+        }
+    }
+}
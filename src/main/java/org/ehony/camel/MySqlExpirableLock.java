@@ -0,0 +1,139 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+import static java.lang.Math.max;
+
+/**
+ * Expirable lock for MySQL 5.6.4 or later, which schema is provided in <code>schema-mysql.sql</code>.
+ * <p>MySQL cannot return updated rows, so queries remember fencing token with
+ * <code>last_insert_id(expr)</code> and token is read from generated keys
+ * of the same statement. Upsert is not used, since MySQL Connector/J reports
+ * found rows instead of changed ones, so a missed update is indistinguishable
+ * from a successful one. Cheap <code>insert ignore</code> follows a missed update instead.</p>
+ */
+public class MySqlExpirableLock extends ExpirableDatabaseLock
+{
+
+    /**
+     * Query to update record representing required lock which has already
+     * expired and belong non-exclusively to another consumer or which belongs to this consumer.
+     * <p>MySQL assigns columns from left to right, so token is computed first
+     * from the previous holder of the lock.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit<br/>
+     * 5 &ndash; lock identifier<br/>
+     * 6 &ndash; consumer identifier
+     * </p>
+     */
+    public static final String UPDATE_QUERY =
+            "update locks"
+                    + " set token = last_insert_id(case when consumer_id = ? and expires > now(3) then token else token + 1 end),"
+                    + " consumer_id = ?, expires = now(3) + interval ? * 1000 microsecond, exclusive = ?"
+                    + " where lock_id = ? and (consumer_id = ? or (expires <= now(3) and exclusive <> 1))";
+
+    /**
+     * Insert new lock record if one does not yet exist.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit
+     * </p>
+     */
+    public static final String INSERT_QUERY =
+            "insert ignore into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token)"
+                    + " values (?, ?, now(3) + interval ? * 1000 microsecond, ?, last_insert_id(1))";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer and has not expired yet.
+     * <p>Parameters are bound in the order shared by dialects.</p>
+     */
+    public static final String RENEW_QUERY =
+            "update locks"
+                    + " set expires = now(3) + interval ? * 1000 microsecond, token = last_insert_id(token)"
+                    + " where lock_id = ? and consumer_id = ? and expires > now(3)";
+
+    public MySqlExpirableLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    @Override
+    protected String getUpdateQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getInsertQuery() {
+        return INSERT_QUERY;
+    }
+
+    @Override
+    protected String getReleaseQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
+    }
+
+    @Override
+    protected PreparedStatement prepareStatement(Connection c, Query query) throws SQLException {
+        return c.prepareStatement(getQuery(query), Statement.RETURN_GENERATED_KEYS);
+    }
+
+    @Override
+    protected void readUpdate(Query query, PreparedStatement stmt) throws SQLException {
+        ResultSet rs = stmt.getGeneratedKeys();
+        try {
+            if (rs.next()) {
+                readResult(query, rs);
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Override
+    protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+        long timeout = getExpirationTimeout();
+        switch (query) {
+            case UPDATE:
+                setUpdateParameters(stmt, max(timeout, 0), timeout < 0);
+                break;
+            case RELEASE:
+                // Release moves expiration to the past.
+                setUpdateParameters(stmt, -1, false);
+                break;
+            case INSERT:
+                // Insert ignores duplicate lock identifier instead of checking it.
+                super.setParameters(Query.ACQUIRE, stmt);
+                break;
+            default:
+                super.setParameters(query, stmt);
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, long timeout, boolean exclusive) throws SQLException {
+        stmt.setString(1, getConsumerId());
+        stmt.setString(2, getConsumerId());
+        stmt.setLong(3, timeout);
+        stmt.setBoolean(4, exclusive);
+        stmt.setString(5, getLockId());
+        stmt.setString(6, getConsumerId());
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+/**
+ * Metrics which record nothing, used by default.
+ */
+public class NoopLockMetrics implements LockMetrics
+{
+
+    public static final NoopLockMetrics INSTANCE = new NoopLockMetrics();
+
+    @Override
+    public void acquired(String lockId, int attempts, long nanos) {
+    }
+
+    @Override
+    public void acquireFailed(String lockId, int attempts, long nanos) {
+    }
+
+    @Override
+    public void insertAttempted(String lockId) {
+    }
+
+    @Override
+    public void failed(String lockId) {
+    }
+
+    @Override
+    public void renewed(String lockId, long lagNanos) {
+    }
+
+    @Override
+    public void released(String lockId, long heldNanos) {
+    }
+
+    @Override
+    public void leadershipChanged(String lockId, boolean leading) {
+    }
+
+    @Override
+    public void routeStarted(String lockId, String routeId, long nanos) {
+    }
+
+    @Override
+    public void routeStopped(String lockId, String routeId, long nanos) {
+    }
+}
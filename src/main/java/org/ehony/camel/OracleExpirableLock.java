@@ -0,0 +1,131 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+/**
+ * Expirable lock for Oracle 10g or later, which schema is provided in <code>schema-oracle.sql</code>.
+ * <p>Lock is obtained with a single conditional <code>merge</code>. Oracle cannot
+ * return rows from <code>merge</code>, so fencing token is read by primary key on the
+ * same connection after the lock was obtained or renewed. Parameters are bound in
+ * the order shared by dialects, see {@link ExpirableDatabaseLock#setParameters(Query, PreparedStatement)}.</p>
+ */
+public class OracleExpirableLock extends ExpirableDatabaseLock
+{
+
+    /**
+     * Query to update record representing required lock which has already
+     * expired and belong non-exclusively to another consumer or which belongs to this consumer.
+     */
+    public static final String UPDATE_QUERY =
+            "update locks"
+                    + " set consumer_id = ?, expires = systimestamp + numToDSInterval(? / 1000, 'SECOND'), exclusive = ?,"
+                    + " token = case when consumer_id = ? and expires > systimestamp then token else token + 1 end"
+                    + " where lock_id = ? and (consumer_id = ? or (expires <= systimestamp and exclusive <> 1))";
+
+    /**
+     * Insert new lock record if one does not yet exist.
+     */
+    public static final String INSERT_QUERY =
+            "insert into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token)"
+                    + " select ?, ?, systimestamp + numToDSInterval(? / 1000, 'SECOND'), ?, 1 from dual"
+                    + " where not exists (select * from locks where lock_id = ?)";
+
+    /**
+     * Atomically update or insert record representing required lock in a single statement.
+     */
+    public static final String MERGE_QUERY =
+            "merge into locks l"
+                    + " using (select ? as lock_id, ? as consumer_id, systimestamp + numToDSInterval(? / 1000, 'SECOND') as expires,"
+                    + " ? as exclusive from dual) s"
+                    + " on (l.lock_id = s.lock_id)"
+                    + " when matched then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = s.exclusive,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > systimestamp then l.token else l.token + 1 end"
+                    + " where l.consumer_id = s.consumer_id or (l.expires <= systimestamp and l.exclusive <> 1)"
+                    + " when not matched then insert (lock_id, consumer_id, expires, exclusive, token)"
+                    + " values (s.lock_id, s.consumer_id, s.expires, s.exclusive, 1)";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer and has not expired yet.
+     */
+    public static final String RENEW_QUERY =
+            "update locks"
+                    + " set expires = systimestamp + numToDSInterval(? / 1000, 'SECOND')"
+                    + " where lock_id = ? and consumer_id = ? and expires > systimestamp";
+
+    /**
+     * Read fencing token of the lock.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier
+     * </p>
+     */
+    public static final String TOKEN_QUERY =
+            "select token from locks where lock_id = ?";
+
+    public OracleExpirableLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    @Override
+    protected String getUpdateQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getInsertQuery() {
+        return INSERT_QUERY;
+    }
+
+    @Override
+    protected String getReleaseQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return MERGE_QUERY;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
+    }
+
+    /**
+     * Merge does not lock the missing record, so consumers which concurrently
+     * insert the same lock fail with <code>ORA-00001</code> unique constraint violation.
+     */
+    @Override
+    protected boolean isConcurrentInsert(SQLException e) {
+        return "23000".equals(e.getSQLState()) && e.getErrorCode() == 1;
+    }
+
+    @Override
+    protected void readUpdate(Query query, PreparedStatement stmt) throws SQLException {
+        if (query == Query.RELEASE) {
+            return;
+        }
+        PreparedStatement select = stmt.getConnection().prepareStatement(TOKEN_QUERY);
+        try {
+            select.setString(1, getLockId());
+            ResultSet rs = select.executeQuery();
+            try {
+                if (rs.next()) {
+                    readResult(query, rs);
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            select.close();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.*;
+import org.apache.camel.impl.RoutePolicySupport;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.Thread.currentThread;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.camel.util.ObjectHelper.*;
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Route policy which spreads partitions, represented by locks of a
+ * {@link DatabaseLockGroup}, across live members of the cluster.
+ * <p>Every partition is assigned to a single member with rendezvous hashing
+ * over {@link DatabaseMembership#getMembers() live members}, so each member
+ * owns a fair share of partitions and only partitions of joined or left members
+ * move on rebalancing. Member claims assigned partitions with leases of the
+ * lock group and runs routes of owned partitions only, so every partition
+ * stays serial while all members are busy.</p>
+ * <p>Route belongs to the partition {@link #assign(String, String) assigned}
+ * to it, by default to the partition with the same identifier as the route.</p>
+ * <p>Rebalancing starts once Camel context of the first registered route has started,
+ * and stops when no routes are registered, so idle policy issues no queries.</p>
+ */
+public class PartitionedRoutePolicy extends RoutePolicySupport
+{
+
+    private DatabaseLockGroup group;
+    private DatabaseMembership membership;
+    private Map<String, String> partitions = new ConcurrentHashMap<String, String>();
+    private List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private ScheduledExecutorService scheduler;
+    private long delay = 1000;
+    private volatile Set<String> owned = Collections.emptySet();
+    private volatile boolean shutdown;
+    private int epoch;
+    private ScheduledFuture<?> check;
+    private LockMetrics metrics = NoopLockMetrics.INSTANCE;
+    /**
+     * Serialises starting and stopping of routes, see {@link SerialAccessRoutePolicy}.
+     */
+    private final ReentrantLock transition = new ReentrantLock();
+
+    /**
+     * Create new partitioned Camel route policy which rebalances partitions
+     * in the {@link LockScheduler#getDefault() shared scheduler}.
+     *
+     * @param group locks which represent partitions.
+     * @param membership membership of this consumer in the cluster.
+     */
+    public PartitionedRoutePolicy(DatabaseLockGroup group, DatabaseMembership membership) {
+        this(group, membership, LockScheduler.getDefault());
+    }
+
+    /**
+     * Create new partitioned Camel route policy.
+     *
+     * @param group locks which represent partitions.
+     * @param membership membership of this consumer in the cluster.
+     * @param scheduler scheduler to run rebalancing on.
+     */
+    public PartitionedRoutePolicy(DatabaseLockGroup group, DatabaseMembership membership, ScheduledExecutorService scheduler) {
+        notNull(group, "Expected lock group.");
+        notNull(membership, "Expected membership.");
+        notNull(scheduler, "Expected scheduler.");
+        this.group = group;
+        this.membership = membership;
+        this.scheduler = scheduler;
+    }
+
+    public long getRebalanceDelay() {
+        return delay;
+    }
+
+    /**
+     * Set interval between membership heartbeats and rebalancing.
+     * <p>Interval must be shorter than expiration timeouts of both membership
+     * and lock group, otherwise leases expire between checks.</p>
+     *
+     * @param delay positive delay.
+     */
+    public void setRebalanceDelay(long delay) {
+        isTrue(delay > 0, "Expected positive rebalance delay.");
+        this.delay = delay;
+    }
+
+    /**
+     * Set metrics which record partitions obtained and lost by this member.
+     *
+     * @param metrics lock metrics.
+     */
+    public void setMetrics(LockMetrics metrics) {
+        notNull(metrics, "Expected lock metrics.");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Assign route to the partition.
+     *
+     * @param routeId identifier of the route.
+     * @param lockId identifier of the lock from the group which represents partition.
+     */
+    public void assign(String routeId, String lockId) {
+        isTrue(group.getLockIds().contains(lockId), "Unknown partition " + lockId);
+        partitions.put(routeId, lockId);
+    }
+
+    /**
+     * Get partition the route belongs to.
+     */
+    protected String getPartition(Route route) {
+        String lockId = partitions.get(route.getId());
+        if (lockId == null) {
+            return route.getId();
+        }
+        return lockId;
+    }
+
+    /**
+     * Get identifiers of partitions owned by this member after the latest rebalancing.
+     */
+    public Set<String> getOwnedPartitions() {
+        return owned;
+    }
+
+    /**
+     * Get member which owns partition among given members.
+     * <p>Owner is the member with the highest weight of the member and
+     * partition pair, so removing a member moves only its own partitions.</p>
+     *
+     * @param members identifiers of live members.
+     * @param partition identifier of the partition.
+     * @return Owner identifier or <code>null</code> if there are no members.
+     */
+    public static String getOwner(Collection<String> members, String partition) {
+        String owner = null;
+        long max = 0;
+        for (String member : members) {
+            long weight = weigh(member, partition);
+            if (owner == null || weight > max || (weight == max && member.compareTo(owner) < 0)) {
+                owner = member;
+                max = weight;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Compute 64-bit FNV-1a hash of the member and partition pair
+     * mixed with MurmurHash3 finalizer.
+     */
+    private static long weigh(String member, String partition) {
+        long h = 0xcbf29ce484222325L;
+        String s = member + '\u0000' + partition;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public void onInit(Route route) {
+        String lockId = getPartition(route);
+        isTrue(group.getLockIds().contains(lockId), "Route " + route.getId() + " belongs to unknown partition " + lockId);
+        route.getRouteContext().getRoute().noAutoStartup();
+        routes.add(route);
+        try {
+            // Routes cannot be started while Camel context is starting, so rebalancing starts once it has started.
+            route.getRouteContext().getCamelContext().addStartupListener(new StartupListener() {
+                @Override
+                public void onCamelContextStarted(CamelContext context, boolean alreadyStarted) {
+                    wake();
+                }
+            });
+        } catch (Exception e) {
+            throw wrapRuntimeCamelException(e);
+        }
+    }
+
+    /**
+     * Remove route, rebalancing stops on its next run if no routes are left.
+     */
+    @Override
+    public void onRemove(Route route) {
+        routes.remove(route);
+    }
+
+    /**
+     * Stop rebalancing, stop routes of owned partitions, then release
+     * partitions and leave the cluster.
+     * <p>Routes are stopped gracefully before partitions are released, so other
+     * members do not start them while their exchanges are inflight. If rebalancing
+     * in progress does not complete within rebalance delay, partitions are
+     * released by it instead.</p>
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            cancel();
+        }
+        try {
+            if (!transition.tryLock(delay, MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+            return;
+        }
+        try {
+            settle();
+        } catch (Exception e) {
+            throw wrapRuntimeCamelException(e);
+        } finally {
+            transition.unlock();
+        }
+    }
+
+    /**
+     * Resume rebalancing after Camel context which stopped this policy is started again.
+     */
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        synchronized (this) {
+            shutdown = false;
+        }
+        if (!routes.isEmpty()) {
+            wake();
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        shutdown();
+        super.doStop();
+    }
+
+    /**
+     * Start rebalancing unless it is already scheduled or policy was shut down.
+     */
+    private synchronized void wake() {
+        if (check == null) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Cancel pending rebalancing, so rebalancing in progress schedules no further one.
+     */
+    private synchronized void cancel() {
+        epoch++;
+        if (check != null) {
+            check.cancel(false);
+            check = null;
+        }
+    }
+
+    private synchronized void schedule(long delay) {
+        if (!shutdown) {
+            check = scheduler.schedule(new Rebalancer(epoch), delay, MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedule next rebalancing unless policy was stopped since the previous one was scheduled.
+     */
+    private synchronized void schedule(long delay, int epoch) {
+        if (epoch == this.epoch) {
+            schedule(delay);
+        }
+    }
+
+    /**
+     * Stop routes of owned partitions, release partitions and leave the cluster
+     * if policy was shut down or no routes are registered.
+     *
+     * @return <code>true</code> if rebalancing has stopped.
+     */
+    private boolean settle() throws Exception {
+        synchronized (this) {
+            if (!shutdown && !routes.isEmpty()) {
+                return false;
+            }
+            // Route registered from now on starts rebalancing again.
+            cancel();
+        }
+        try {
+            follow(Collections.<String>emptySet());
+            group.release();
+            membership.leave();
+        } finally {
+            record(Collections.<String>emptySet());
+        }
+        return true;
+    }
+
+    /**
+     * Start routes of owned partitions and stop the rest.
+     */
+    private void follow(Set<String> partitions) throws Exception {
+        for (Route route : routes) {
+            CamelContext context = route.getRouteContext().getCamelContext();
+            if (partitions.contains(getPartition(route))) {
+                route.getRouteContext().getRoute().setAutoStartup("true");
+                context.startRoute(route.getId());
+            } else {
+                context.stopRoute(route.getId());
+            }
+        }
+    }
+
+    private void record(Set<String> obtained) {
+        for (String lockId : obtained) {
+            if (!owned.contains(lockId)) {
+                metrics.leadershipChanged(lockId, true);
+            }
+        }
+        for (String lockId : owned) {
+            if (!obtained.contains(lockId)) {
+                metrics.leadershipChanged(lockId, false);
+            }
+        }
+        owned = Collections.unmodifiableSet(obtained);
+    }
+
+    private class Rebalancer implements Runnable {
+
+        private final int epoch;
+
+        Rebalancer(int epoch) {
+            this.epoch = epoch;
+        }
+
+        @Override
+        public void run() {
+            transition.lock();
+            try {
+                if (!shutdown && !routes.isEmpty()) {
+                    rebalance();
+                }
+            } finally {
+                try {
+                    // Checks never overlap, since next one is scheduled after this one completes.
+                    if (!settle()) {
+                        schedule(delay, epoch);
+                    }
+                } catch (Exception e) {
+                    handleException(wrapRuntimeCamelException(e));
+                } finally {
+                    transition.unlock();
+                }
+            }
+        }
+
+        private void rebalance() {
+            try {
+                if (!membership.heartbeat()) {
+                    throw new IllegalStateException("Member " + membership.getMemberId() + " is already registered.");
+                }
+                Set<String> members = new TreeSet<String>(membership.getMembers());
+                members.add(membership.getMemberId());
+
+                Set<String> wanted = new HashSet<String>();
+                for (String lockId : group.getLockIds()) {
+                    if (membership.getMemberId().equals(getOwner(members, lockId))) {
+                        wanted.add(lockId);
+                    }
+                }
+                // Partitions moved to other members are stopped before they are released.
+                Set<String> kept = new HashSet<String>(owned);
+                kept.retainAll(wanted);
+                follow(kept);
+
+                Set<String> obtained = new HashSet<String>(group.acquire(wanted));
+                record(obtained);
+                follow(obtained);
+            } catch (Exception e) {
+                try {
+                    record(Collections.<String>emptySet());
+                    follow(owned);
+                } catch (Exception ignored) {
+                    // Routes will be stopped on the next check.
+                } finally {
+                    handleException(wrapRuntimeCamelException(e));
+                }
+            }
+        }
+    }
+}
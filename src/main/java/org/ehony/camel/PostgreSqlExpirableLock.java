@@ -0,0 +1,104 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+
+/**
+ * Expirable lock for PostgreSQL 9.5 or later, which schema is provided in <code>schema-postgresql.sql</code>.
+ * <p>Lock is obtained with a single <code>insert .. on conflict do update</code> statement
+ * and queries return fencing token and remaining lease via <code>returning</code> clause. Parameters are bound
+ * in the order shared by dialects, see {@link ExpirableDatabaseLock#setParameters(Query, java.sql.PreparedStatement)}.</p>
+ */
+public class PostgreSqlExpirableLock extends ExpirableDatabaseLock
+{
+
+    /**
+     * Query to update record representing required lock which has already
+     * expired and belong non-exclusively to another consumer or which belongs to this consumer.
+     * <b>Returns</b> fencing token and remaining lease of the updated record.
+     */
+    public static final String UPDATE_QUERY =
+            "update locks"
+                    + " set consumer_id = ?, expires = statement_timestamp() + ? * interval '1 millisecond', exclusive = ?,"
+                    + " token = case when consumer_id = ? and expires > statement_timestamp() then token else token + 1 end"
+                    + " where lock_id = ? and (consumer_id = ? or (expires <= statement_timestamp() and not exclusive))"
+                    + " returning token, (extract(epoch from expires - statement_timestamp()) * 1000)::bigint";
+
+    /**
+     * Insert new lock record if one does not yet exist.
+     * <b>Returns</b> fencing token and remaining lease of the inserted record.
+     */
+    public static final String INSERT_QUERY =
+            "insert into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token)"
+                    + " select ?, ?, statement_timestamp() + ? * interval '1 millisecond', ?, 1"
+                    + " where not exists (select * from locks where lock_id = ?)"
+                    + " on conflict do nothing"
+                    + " returning token, (extract(epoch from expires - statement_timestamp()) * 1000)::bigint";
+
+    /**
+     * Atomically update or insert record representing required lock in a single statement.
+     * <b>Returns</b> fencing token and remaining lease of the updated or inserted record.
+     */
+    public static final String UPSERT_QUERY =
+            "insert into"
+                    + " locks as l (lock_id, consumer_id, expires, exclusive, token)"
+                    + " values (?, ?, statement_timestamp() + ? * interval '1 millisecond', ?, 1)"
+                    + " on conflict (lock_id) do update"
+                    + " set consumer_id = excluded.consumer_id, expires = excluded.expires, exclusive = excluded.exclusive,"
+                    + " token = case when l.consumer_id = excluded.consumer_id and l.expires > statement_timestamp() then l.token else l.token + 1 end"
+                    + " where l.consumer_id = excluded.consumer_id or (l.expires <= statement_timestamp() and not l.exclusive)"
+                    + " returning token, (extract(epoch from expires - statement_timestamp()) * 1000)::bigint";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer and has not expired yet.
+     * <b>Returns</b> fencing token and remaining lease of the renewed record.
+     */
+    public static final String RENEW_QUERY =
+            "update locks"
+                    + " set expires = statement_timestamp() + ? * interval '1 millisecond'"
+                    + " where lock_id = ? and consumer_id = ? and expires > statement_timestamp()"
+                    + " returning token, (extract(epoch from expires - statement_timestamp()) * 1000)::bigint";
+
+    public PostgreSqlExpirableLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    @Override
+    protected String getUpdateQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getInsertQuery() {
+        return INSERT_QUERY;
+    }
+
+    @Override
+    protected String getReleaseQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return UPSERT_QUERY;
+    }
+
+    /**
+     * Queries report remaining lease computed by the database clock.
+     */
+    @Override
+    protected boolean isLeaseReported() {
+        return true;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.*;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+import static java.lang.Thread.*;
+import static org.apache.commons.lang.Validate.*;
+
+/**
+ * Release notifier which propagates releases between JVMs via PostgreSQL
+ * <code>LISTEN</code> and <code>NOTIFY</code>.
+ * <p>Notifier keeps a dedicated connection listening on the channel,
+ * which must be started with {@link #start()}. Payload of the notification
+ * is the identifier of the released lock.</p>
+ * <p>Listening connection is never returned, so notifier does not accept
+ * {@link LockConnectionPool} and needs the pool of the application instead.</p>
+ */
+public class PostgreSqlLockReleaseNotifier extends InMemoryLockReleaseNotifier
+{
+
+    public static final String DEFAULT_CHANNEL = "lock_released";
+
+    /**
+     * Query to notify listeners of the channel.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; channel name<br/>
+     * 2 &ndash; lock identifier
+     * </p>
+     */
+    public static final String NOTIFY_QUERY = "select pg_notify(?, ?)";
+
+    private static final Logger log = LoggerFactory.getLogger(PostgreSqlLockReleaseNotifier.class);
+
+    private DataSource dataSource;
+    private String channel;
+    private long pollTimeout = 1000, reconnectDelay = 5000;
+    private volatile Thread listener;
+
+    public PostgreSqlLockReleaseNotifier(DataSource dataSource) {
+        this(dataSource, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * @param dataSource PostgreSQL data source.
+     * @param channel name of the notification channel, must be a valid identifier.
+     */
+    public PostgreSqlLockReleaseNotifier(DataSource dataSource, String channel) {
+        notNull(dataSource, "Data source expected.");
+        isTrue(!(dataSource instanceof LockConnectionPool), "Listening connection would starve lock connection pool.");
+        isTrue(channel != null && channel.matches("[a-zA-Z_][a-zA-Z0-9_]*"), "Expected channel identifier.");
+        this.dataSource = dataSource;
+        this.channel = channel;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * Set pause before re-establishing the listening connection after failure.
+     * @param delay positive amount of msec.
+     */
+    public void setReconnectDelay(long delay) {
+        isTrue(delay > 0, "Positive delay expected.");
+        this.reconnectDelay = delay;
+    }
+
+    /**
+     * Start listening for notifications from other JVMs.
+     */
+    public synchronized void start() {
+        if (listener == null) {
+            listener = new Thread(new Listener(), "PostgreSqlLockReleaseNotifier-" + channel);
+            listener.setDaemon(true);
+            listener.start();
+        }
+    }
+
+    /**
+     * Stop listening and close the dedicated connection.
+     */
+    public synchronized void stop() {
+        if (listener != null) {
+            listener.interrupt();
+            listener = null;
+        }
+    }
+
+    @Override
+    public void released(String lockId) {
+        // Local waiters do not have to wait for the round trip.
+        super.released(lockId);
+        try {
+            Connection c = dataSource.getConnection();
+            try {
+                PreparedStatement stmt = c.prepareStatement(NOTIFY_QUERY);
+                try {
+                    stmt.setString(1, channel);
+                    stmt.setString(2, lockId);
+                    stmt.execute();
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            // Waiters would notice release on their next poll.
+            log.warn("Cannot notify release of lock " + lockId, e);
+        }
+    }
+
+    private class Listener implements Runnable {
+
+        @Override
+        public void run() {
+            while (listener == currentThread()) {
+                try {
+                    listen();
+                } catch (SQLException e) {
+                    log.warn("Listening for lock releases on channel " + channel + " failed", e);
+                    try {
+                        sleep(reconnectDelay);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void listen() throws SQLException {
+            Connection c = dataSource.getConnection();
+            try {
+                Statement stmt = c.createStatement();
+                try {
+                    stmt.execute("listen " + channel);
+                } finally {
+                    stmt.close();
+                }
+                PGConnection pg = c.unwrap(PGConnection.class);
+                while (listener == currentThread()) {
+                    PGNotification[] notifications = pg.getNotifications((int) pollTimeout);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            PostgreSqlLockReleaseNotifier.super.released(notification.getParameter());
+                        }
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+}
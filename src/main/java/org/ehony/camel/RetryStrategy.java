@@ -0,0 +1,23 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+/**
+ * Strategy which computes pauses between lock obtaining attempts.
+ */
+public interface RetryStrategy
+{
+
+    /**
+     * Get pause before the next lock obtaining attempt.
+     *
+     * @param attempt number of failed attempts, starting with one.
+     * @param previous previous pause in msec, zero before the first retry.
+     * @return Positive amount of msec.
+     */
+    long getDelay(int attempt, long previous);
+}
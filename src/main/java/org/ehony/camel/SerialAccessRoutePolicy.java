@@ -6,61 +6,158 @@
  */
 package org.ehony.camel;
 
-import org.apache.camel.Route;
+import org.apache.camel.*;
 import org.apache.camel.impl.RoutePolicySupport;
+import org.apache.camel.util.ServiceHelper;
 
 import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.*;
+import java.util.function.BiConsumer;
 
-import static java.lang.Thread.sleep;
-import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.lang.Math.*;
+import static java.lang.Thread.*;
+import static java.util.concurrent.TimeUnit.*;
 import static org.apache.camel.util.ObjectHelper.*;
 import static org.apache.commons.lang.Validate.isTrue;
 
 public class SerialAccessRoutePolicy extends RoutePolicySupport
 {
 
+    /**
+     * Name of the exchange header which holds fencing token of the lock,
+     * if lock is a {@link DatabaseLock}.
+     */
+    public static final String FENCING_TOKEN_HEADER = "SerialAccessFencingToken";
+
+    /**
+     * States of the lock monitor.
+     */
+    public enum State
+    {
+        /**
+         * No routes are registered, so lock is not checked.
+         */
+        IDLE,
+        /**
+         * Lock is checked periodically until it is obtained.
+         */
+        CONTENDING,
+        /**
+         * Lock is held and routes are started.
+         */
+        LEADING,
+        /**
+         * Routes are being handed over to another consumer.
+         */
+        DRAINING
+    }
+
     private Lock lock;
     private List<Route> routes = new CopyOnWriteArrayList<Route>();
-    private ExecutorService pool;
-    private long delay = 1000;
-    
+    private ScheduledExecutorService scheduler;
+    private Executor pool;
+    private long delay = 1000, drainTimeout = 10000;
+    private volatile boolean leading, shutdown, asynchronous;
+    private volatile State state = State.IDLE;
     /**
-     * Create new serial access Camel route policy which stores
-     * lock monitoring task in internal thread pool.
-     * 
+     * Serialises starting and stopping of routes. Camel callbacks never wait
+     * for it indefinitely, since routes are started and stopped under the monitor
+     * of Camel context which is held while callbacks are invoked.
+     */
+    private final ReentrantLock transition = new ReentrantLock();
+    private boolean listening, handingOver;
+    private int epoch;
+    private ScheduledFuture<?> check, expiry;
+    private LockReleaseNotifier releaseNotifier;
+    private LockMetrics metrics = NoopLockMetrics.INSTANCE;
+
+    /**
+     * Checks the lock immediately when it is released by another consumer.
+     */
+    private final Runnable wakeUp = new Runnable() {
+        @Override
+        public void run() {
+            if (state == State.CONTENDING) {
+                reschedule(0);
+            }
+        }
+    };
+
+    /**
+     * Checks the lock immediately when its lease is lost, so routes are handed over
+     * without waiting for the next check.
+     */
+    private final LeaseListener leaseLost = new LeaseListener() {
+        @Override
+        public void leaseLost(ExpirableDatabaseLock lock, Throwable cause) {
+            if (state == State.LEADING) {
+                reschedule(0);
+            }
+        }
+    };
+
+    /**
+     * Stops routes when local lease deadline passes without renewal.
+     */
+    private final Runnable leaseExpired = new Runnable() {
+        @Override
+        public void run() {
+            expire();
+        }
+    };
+
+    /**
+     * Create new serial access Camel route policy which monitors
+     * lock in the {@link LockScheduler#getDefault() shared scheduler}.
+     *
      * @param lock re-entrant lock to synchronise on.
      */
     public SerialAccessRoutePolicy(Lock lock) {
-        this(lock, newFixedThreadPool(1));
+        this(lock, LockScheduler.getDefault());
     }
 
     /**
-     * Create new serial access Camel route policy which stores
+     * Create new serial access Camel route policy which runs
      * lock monitoring task in provided thread pool.
      * <p>Provided lock <font color="red">must be re-entrant</font> in order
-     * to support sequential lock status check.</p>
-     * 
+     * to support sequential lock status check. Policy keeps a single hold
+     * on the lock while leading, so every repeated successful check is
+     * balanced by unlocking.</p>
+     * <p>Monitoring task occupies a thread only while checking the lock and
+     * starts when the first route is registered, so idle policy issues no queries.
+     * If pool is not a {@link ScheduledExecutorService}, checks are timed by
+     * the {@link LockScheduler#getDefault() shared scheduler} and run in the pool.
+     * Handover waits for inflight exchanges, so it runs in the
+     * {@link LockScheduler#getDrainPool() drain pool} if the pool is a {@link LockScheduler},
+     * and in the pool otherwise.</p>
+     *
      * @param lock re-entrant lock to synchronise on.
-     * @param pool thread pool to keep lock monitor.
+     * @param pool thread pool to run lock monitor.
      */
     public SerialAccessRoutePolicy(Lock lock, ExecutorService pool) {
         notNull(lock, "Expected lock.");
         notNull(pool, "Expected thread pool.");
         this.lock = lock;
         this.pool = pool;
-        
-        // Auto-start lock monitor.
-        pool.submit(new LockSpy());
+        if (pool instanceof ScheduledExecutorService) {
+            scheduler = (ScheduledExecutorService) pool;
+        } else {
+            scheduler = LockScheduler.getDefault();
+        }
     }
-    
+
     public long getLockObtainDelay() {
         return delay;
     }
 
     /**
-     * Set interval between lock obtain retries. 
+     * Set interval between lock obtain retries.
+     * <p>Every check makes a single attempt to obtain the lock, since the next check
+     * is the retry. {@link DatabaseLock#setRetryCount(int) Retries} of a database lock
+     * are not made, so checks never sleep in threads of the shared scheduler, which
+     * also renew leases.</p>
+     *
      * @param delay positive delay.
      */
     public void setLockObtainDelay(long delay) {
@@ -68,50 +165,704 @@ public class SerialAccessRoutePolicy extends RoutePolicySupport
         this.delay = delay;
     }
 
+    public long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * Set maximum time to wait for inflight exchanges to complete when routes
+     * are handed over to another consumer.
+     * <p>Consumers of routes are stopped first, so no new exchanges are created
+     * while inflight ones complete. Lock is released after draining, so failover
+     * pause is bounded by drain timeout instead of lease expiration.</p>
+     * <p>Routes are stopped once drain timeout has passed, but lock is not released
+     * while exchanges are still inflight, so another consumer does not start processing
+     * alongside them. Lock is released when they complete. Lease of an expirable lock
+     * is not renewed meanwhile, so it expires if they never complete.</p>
+     *
+     * @param timeout non-negative amount of msec, zero does not wait.
+     */
+    public void setDrainTimeout(long timeout) {
+        isTrue(timeout >= 0, "Expected non-negative drain timeout.");
+        this.drainTimeout = timeout;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Set whether database lock is checked via {@link DatabaseLock#acquireAsync(long)}.
+     * <p>Asynchronous check does not occupy a thread while the query is pending,
+     * routes are started or stopped in the thread pool of this policy when the
+     * check completes. Ignored if lock is not a {@link DatabaseLock}.</p>
+     * <p>Queries are blocking JDBC calls run by the {@link DatabaseLock#setAsyncExecutor async executor}
+     * of the lock, which is the shared scheduler by default, so lock should be given
+     * a dedicated executor if database may respond slowly.</p>
+     *
+     * @param asynchronous <code>true</code> to check the lock asynchronously.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public LockMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set metrics which record leadership changes and time spent
+     * starting and stopping routes.
+     *
+     * @param metrics lock metrics.
+     * @see ManagedLockMetrics
+     */
+    public void setMetrics(LockMetrics metrics) {
+        notNull(metrics, "Expected lock metrics.");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get name under which metrics of the lock are recorded.
+     */
+    private String getLockName() {
+        if (lock instanceof DatabaseLock) {
+            return ((DatabaseLock) lock).getLockId();
+        }
+        return String.valueOf(lock);
+    }
+
     @Override
     public void onInit(final Route route) {
         route.getRouteContext().getRoute().noAutoStartup();
         routes.add(route);
+        listen();
+        try {
+            // Routes cannot be started while Camel context is starting, so lock is checked once it has started.
+            route.getRouteContext().getCamelContext().addStartupListener(new StartupListener() {
+                @Override
+                public void onCamelContextStarted(CamelContext context, boolean alreadyStarted) {
+                    wake();
+                }
+            });
+        } catch (Exception e) {
+            throw wrapRuntimeCamelException(e);
+        }
+    }
+
+    /**
+     * Get current state of the lock monitor.
+     */
+    public State getState() {
+        return state;
     }
 
+    /**
+     * Start contending for the lock if monitor is idle, otherwise check
+     * the lock immediately, so registered routes are started as soon as
+     * lock is obtained.
+     */
+    private synchronized void wake() {
+        if (shutdown) {
+            return;
+        }
+        if (state == State.IDLE) {
+            state = State.CONTENDING;
+        }
+        // Running check picks up registered routes on its own.
+        if (check == null || check.cancel(false)) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Stop checking the lock and release it, since no routes are registered.
+     * <p>Lock is released by the transition in progress, if any.
+     * Checks scheduled before parking do not schedule further checks.</p>
+     */
+    private void park() {
+        synchronized (this) {
+            cancel();
+            epoch++;
+            state = State.IDLE;
+        }
+        if (transition.tryLock()) {
+            try {
+                settle();
+            } finally {
+                transition.unlock();
+            }
+        }
+    }
+
+    /**
+     * Park the policy if routes were removed or policy was shut down
+     * while routes were being started or stopped.
+     *
+     * @return <code>true</code> if policy is parked.
+     */
+    private boolean settle() {
+        if (!shutdown && !routes.isEmpty()) {
+            return false;
+        }
+        if (handingOver) {
+            // Handover parks the policy when it completes.
+            return true;
+        }
+        try {
+            resign();
+        } finally {
+            state = State.IDLE;
+        }
+        return true;
+    }
+
+    /**
+     * Cancel pending lock check and lease watch.
+     */
+    private synchronized void cancel() {
+        if (check != null) {
+            check.cancel(false);
+            check = null;
+        }
+        if (expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+    }
+
+    /**
+     * Subscribe to releases of the database lock, if it has a release notifier,
+     * and to losses of its lease.
+     */
+    private synchronized void listen() {
+        if (listening) {
+            return;
+        }
+        listening = true;
+        if (lock instanceof DatabaseLock) {
+            DatabaseLock lock = (DatabaseLock) this.lock;
+            releaseNotifier = lock.getReleaseNotifier();
+            if (releaseNotifier != null) {
+                releaseNotifier.addListener(lock.getLockId(), wakeUp);
+            }
+        }
+        if (lock instanceof LeasedLock) {
+            ((LeasedLock) lock).addLeaseListener(leaseLost);
+        }
+    }
+
+    /**
+     * Stamps exchange with fencing token of the held lock, so downstream
+     * resources can reject writes from consumers which lease has expired.
+     */
+    @Override
+    public void onExchangeBegin(Route route, Exchange exchange) {
+        if (lock instanceof LeasedLock) {
+            exchange.getIn().setHeader(FENCING_TOKEN_HEADER, ((LeasedLock) lock).getFencingToken());
+        } else if (lock instanceof DatabaseLock) {
+            exchange.getIn().setHeader(FENCING_TOKEN_HEADER, ((DatabaseLock) lock).getFencingToken());
+        }
+    }
+
+    @Override
     public void onRemove(Route route) {
         routes.remove(route);
-        if (routes.isEmpty() && lock.tryLock()) {
+        if (routes.isEmpty()) {
+            park();
+        }
+    }
+
+    /**
+     * Release hold of the lock taken by this policy, if leading.
+     */
+    private synchronized void resign() {
+        if (leading) {
+            leading = false;
+            metrics.leadershipChanged(getLockName(), false);
             lock.unlock();
         }
     }
-    
-    private class LockSpy implements Runnable {
 
-        @Override
-        public synchronized void run() {
-            while (true) {
-                try {
-                    if (routes.isEmpty()) {
-                        routes.wait();
-                    } else {
-                        if (lock.tryLock()) { 
-                            for (Route route : routes) {
-                                route.getRouteContext().getRoute().setAutoStartup("true");
-                                route.getRouteContext().getCamelContext().startRoute(route.getId());
-                            }
-                        } else {
-                            for (Route route : routes) {
-                                route.getRouteContext().getCamelContext().stopRoute(route.getId());
-                            }
+    /**
+     * Stop monitoring the lock and hand routes over to another consumer if leading.
+     * <p>Consumers of routes are stopped, inflight exchanges are drained within
+     * {@link #setDrainTimeout(long) drain timeout}, then lock is released and routes
+     * are stopped. Lock is kept while exchanges which outlived drain timeout are inflight.
+     * Shared scheduler is not shut down, see {@link LockScheduler#shutdownDefault()}.</p>
+     * <p>If routes are being started or stopped by a lock check which does not
+     * complete within drain timeout, lock is released by that check instead.</p>
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            cancel();
+            if (releaseNotifier != null) {
+                releaseNotifier.removeListener(((DatabaseLock) lock).getLockId(), wakeUp);
+                releaseNotifier = null;
+            }
+            if (lock instanceof LeasedLock) {
+                ((LeasedLock) lock).removeLeaseListener(leaseLost);
+            }
+            listening = false;
+        }
+        try {
+            if (!transition.tryLock(drainTimeout, MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+            return;
+        }
+        try {
+            if (leading) {
+                handOver(true);
+            }
+        } catch (Exception e) {
+            throw wrapRuntimeCamelException(e);
+        } finally {
+            state = State.IDLE;
+            try {
+                resign();
+            } finally {
+                transition.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stop consumers of routes, drain their inflight exchanges and stop routes.
+     *
+     * @param release <code>true</code> if lock held by this policy should be released
+     *                as soon as exchanges are drained, <code>false</code> if lease was lost,
+     *                so lock record is released only if it still belongs to this consumer.
+     */
+    private void handOver(boolean release) throws Exception {
+        state = State.DRAINING;
+        try {
+            drain(release);
+        } finally {
+            state = State.CONTENDING;
+        }
+    }
+
+    private void drain(boolean release) throws Exception {
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(getDrainTime());
+        for (Route route : routes) {
+            // Suspended consumers delay graceful route shutdown, so consumers are stopped.
+            ServiceHelper.stopService(route.getConsumer());
+        }
+        boolean drained = awaitInflight(deadline);
+        try {
+            if (release && drained) {
+                resign();
+            } else if (release) {
+                abandon();
+            } else if (drained) {
+                relinquish();
+            }
+        } finally {
+            for (Route route : routes) {
+                long start = System.nanoTime();
+                // Exchanges which outlived drain timeout are not waited for.
+                long remaining = max(1, NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                route.getRouteContext().getCamelContext().stopRoute(route.getId(), remaining, MILLISECONDS);
+                metrics.routeStopped(getLockName(), route.getId(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Hand routes over in the drain pool, so the thread which checked the lock
+     * does not wait for inflight exchanges. Lock checks which complete meanwhile
+     * leave routes intact.
+     *
+     * @param release <code>true</code> if lock held by this policy should be released
+     *                as soon as exchanges are drained.
+     */
+    private void handOverLater(final boolean release) {
+        handingOver = true;
+        state = State.DRAINING;
+        try {
+            getDrainPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    transition.lock();
+                    try {
+                        handOver(release);
+                    } catch (Exception e) {
+                        handleException(wrapRuntimeCamelException(e));
+                    } finally {
+                        handingOver = false;
+                        try {
+                            settle();
+                        } finally {
+                            transition.unlock();
                         }
-                        sleep(delay);
                     }
-                } catch (Exception e) {
+                }
+            });
+        } catch (RuntimeException e) {
+            handingOver = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Get pool to hand routes over in, which is never a scheduler shared by lock checks.
+     */
+    private Executor getDrainPool() {
+        if (pool instanceof LockScheduler) {
+            return LockScheduler.getDrainPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Check if routes have inflight exchanges.
+     */
+    private boolean isInflight() {
+        for (Route route : routes) {
+            if (route.getRouteContext().getCamelContext().getInflightRepository().size(route.getId()) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wait for inflight exchanges of routes to complete.
+     *
+     * @param deadline {@link System#nanoTime()} to stop waiting at.
+     * @return <code>true</code> if no exchanges are inflight.
+     */
+    private boolean awaitInflight(long deadline) {
+        while (isInflight()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            try {
+                sleep(10);
+            } catch (InterruptedException e) {
+                currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Release record of the lost lease if it still belongs to this consumer, e.g. when
+     * holder was preempted, so contenders do not wait for the lease to expire.
+     */
+    private void relinquish() {
+        if (!(lock instanceof DatabaseLock)) {
+            return;
+        }
+        try {
+            lock.unlock();
+        } catch (IllegalMonitorStateException ignored) {
+            // Record belongs to another consumer.
+        } catch (LockException ignored) {
+            // Lease expires on its own.
+        }
+    }
+
+    /**
+     * Stop leading without releasing the lock, since exchanges outlived drain timeout.
+     * <p>Hold of the lock is released in the drain pool once exchanges complete or
+     * lease of an expirable lock, which is not renewed any more, expires.</p>
+     */
+    private synchronized void abandon() {
+        if (!leading) {
+            return;
+        }
+        leading = false;
+        metrics.leadershipChanged(getLockName(), false);
+        if (lock instanceof LeasedLock) {
+            ((LeasedLock) lock).stopRenewal();
+        }
+        getDrainPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                while (isInflight() && !(lock instanceof LeasedLock && ((LeasedLock) lock).getRemainingLease() == 0)) {
                     try {
-                        lock.unlock();
-                    } finally {
-                        // Prevent death of monitoring thread.
-                        pool.submit(new LockSpy());
+                        sleep(10);
+                    } catch (InterruptedException e) {
+                        currentThread().interrupt();
+                        break;
                     }
-                    throw wrapRuntimeCamelException(e);
                 }
+                try {
+                    lock.unlock();
+                } catch (Exception ignored) {
+                    // Lease has expired or database is unreachable.
+                }
+            }
+        });
+    }
+
+    /**
+     * Get time inflight exchanges may be drained for.
+     * <p>Draining never outlives local lease of an expirable lock, so exchanges
+     * are not processed after another consumer may have obtained the lock.</p>
+     */
+    private long getDrainTime() {
+        if (lock instanceof LeasedLock) {
+            long remaining = ((LeasedLock) lock).getRemainingLease();
+            if (remaining >= 0) {
+                return min(drainTimeout, remaining);
+            }
+        }
+        return drainTimeout;
+    }
+
+    /**
+     * Watch local lease deadline of the expirable lock while leading.
+     */
+    private synchronized void watchLease() {
+        if (expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+        if (shutdown || !leading || !(lock instanceof LeasedLock)) {
+            return;
+        }
+        long remaining = ((LeasedLock) lock).getRemainingLease();
+        // Infinite lease never expires.
+        if (remaining >= 0) {
+            expiry = submit(leaseExpired, remaining);
+        }
+    }
+
+    /**
+     * Stop routes if local lease deadline has passed, since lease was not renewed
+     * in time and another consumer may obtain the lock as soon as it expires.
+     * <p>Routes are stopped on the local clock, so they do not keep consuming
+     * while database is unreachable and lock checks hang or fail.</p>
+     */
+    private void expire() {
+        transition.lock();
+        try {
+            synchronized (this) {
+                expiry = null;
+            }
+            if (shutdown || !leading || handingOver) {
+                return;
+            }
+            if (((LeasedLock) lock).getRemainingLease() != 0) {
+                // Lease was renewed since the deadline was watched.
+                watchLease();
+                return;
+            }
+            // Lease has expired locally, so hold is released once exchanges are drained.
+            handOverLater(true);
+        } finally {
+            try {
+                settle();
+            } finally {
+                transition.unlock();
+            }
+        }
+    }
+
+    /**
+     * Resume monitoring the lock after Camel context which stopped
+     * this policy is started again.
+     */
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        synchronized (this) {
+            shutdown = false;
+        }
+        if (!routes.isEmpty()) {
+            listen();
+            wake();
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        shutdown();
+        super.doStop();
+    }
+
+    /**
+     * Move pending lock check to happen after given delay.
+     * <p>Running check is left intact, so checks never overlap.</p>
+     */
+    private synchronized void reschedule(long delay) {
+        if (check != null && check.cancel(false)) {
+            schedule(delay);
+        }
+    }
+
+    private synchronized void schedule(long delay) {
+        if (shutdown || state == State.IDLE) {
+            return;
+        }
+        check = submit(new LockSpy(epoch), delay);
+    }
+
+    /**
+     * Schedule next check unless policy was parked since the previous one was scheduled.
+     */
+    private synchronized void schedule(long delay, int epoch) {
+        if (epoch == this.epoch) {
+            schedule(delay);
+        }
+    }
+
+    /**
+     * Run task in the thread pool of this policy after given delay.
+     */
+    private ScheduledFuture<?> submit(final Runnable task, long delay) {
+        if (pool == scheduler) {
+            return scheduler.schedule(task, delay, MILLISECONDS);
+        }
+        // Scheduler only times the task, which runs in the pool.
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pool.execute(task);
+            }
+        }, delay, MILLISECONDS);
+    }
+
+    /**
+     * Start or stop routes according to the result of the lock check
+     * and schedule the next check.
+     *
+     * @param obtained <code>true</code> if lock was obtained.
+     * @param failure exception thrown by the check or <code>null</code>.
+     * @param epoch epoch of the policy when check was scheduled.
+     */
+    private void checked(boolean obtained, Throwable failure, int epoch) {
+        transition.lock();
+        try {
+            if (shutdown || routes.isEmpty()) {
+                // Policy was parked or shut down while the lock was being checked.
+                if (obtained) {
+                    lock.unlock();
+                }
+            } else if (handingOver) {
+                // Routes are started by the first check after handover completes.
+                if (obtained) {
+                    lock.unlock();
+                }
+            } else if (failure == null) {
+                follow(obtained);
+            } else {
+                fail(failure);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            try {
+                // Lock was not released by the callback, if it could not wait for this check.
+                if (!settle()) {
+                    // Checks never overlap, since next one is scheduled after this one completes.
+                    schedule(delay, epoch);
+                }
+            } finally {
+                transition.unlock();
+            }
+        }
+    }
+
+    private void follow(boolean obtained) throws Exception {
+        if (obtained) {
+            boolean changed = !leading;
+            if (changed) {
+                leading = true;
+                state = State.LEADING;
+                metrics.leadershipChanged(getLockName(), true);
+                watchLease();
+            } else {
+                // Hold taken while leading is kept, so this one is redundant.
+                lock.unlock();
+            }
+            for (Route route : routes) {
+                long start = System.nanoTime();
+                route.getRouteContext().getRoute().setAutoStartup("true");
+                route.getRouteContext().getCamelContext().startRoute(route.getId());
+                if (changed) {
+                    metrics.routeStarted(getLockName(), route.getId(), System.nanoTime() - start);
+                }
+            }
+        } else if (leading) {
+            // Lease was lost, so record is released after draining only if it is still ours.
+            leading = false;
+            metrics.leadershipChanged(getLockName(), false);
+            handOverLater(false);
+        } else {
+            for (Route route : routes) {
+                route.getRouteContext().getCamelContext().stopRoute(route.getId());
+            }
+        }
+    }
+
+    private void fail(Throwable e) {
+        try {
+            if (leading) {
+                // Lease cannot be confirmed, so routes are handed over.
+                handOverLater(true);
+            }
+        } catch (Exception ignored) {
+            // Routes will be stopped on the next check.
+        } finally {
+            handleException(wrapRuntimeCamelException(e));
+        }
+    }
+
+    /**
+     * Make a single attempt to obtain the lock without pausing between retries.
+     */
+    private boolean attempt() throws InterruptedException {
+        if (lock instanceof DatabaseLock) {
+            // Zero timeout makes a single query.
+            return lock.tryLock(0, MILLISECONDS);
+        }
+        return lock.tryLock();
+    }
+
+    private class LockSpy implements Runnable {
+
+        private final int epoch;
+
+        LockSpy(int epoch) {
+            this.epoch = epoch;
+        }
+
+        @Override
+        public void run() {
+            if (routes.isEmpty()) {
+                park();
+                return;
+            }
+            if (asynchronous && lock instanceof DatabaseLock) {
+                try {
+                    // Routes are started or stopped in the pool when lock check completes.
+                    ((DatabaseLock) lock).acquireAsync(0).whenCompleteAsync(new BiConsumer<LockLease, Throwable>() {
+                        @Override
+                        public void accept(LockLease lease, Throwable e) {
+                            checked(lease != null, e, epoch);
+                        }
+                    }, pool);
+                } catch (RuntimeException e) {
+                    checked(false, e, epoch);
+                }
+                return;
+            }
+            boolean obtained = false;
+            Throwable failure = null;
+            try {
+                obtained = attempt();
+            } catch (Exception e) {
+                failure = e;
             }
+            checked(obtained, failure, epoch);
         }
     }
 }
@@ -8,61 +8,122 @@ package org.ehony.camel;
 
 import javax.sql.DataSource;
 
-import static java.lang.Math.max;
-import static java.text.MessageFormat.format;
-
 public class TransactSqlExpirableLock extends ExpirableDatabaseLock
 {
 
     /**
-     * Query pattern to update record representing required lock which has already
+     * Query to update record representing required lock which has already
      * expired and belong non-exclusively to another consumer or which belongs to this consumer.
+     * <p>Fencing token is incremented unless lock is still held by this consumer.</p>
      * <p><b>Important</b> Query may update nothing, meaning lock cannot be obtained.</p>
      * <p>
      * <b>Parameters</b><br/>
-     * 0 &ndash; lock identifier<br/>
      * 1 &ndash; consumer identifier<br/>
      * 2 &ndash; expiration timeout<br/>
-     * 3 &ndash; lock exclusiveness bit
+     * 3 &ndash; lock exclusiveness bit<br/>
+     * 4 &ndash; consumer identifier<br/>
+     * 5 &ndash; lock identifier<br/>
+     * 6 &ndash; consumer identifier
      * </p>
+     * <b>Returns</b> fencing token and remaining lease of the updated record.
      */
     public static final String UPDATE_QUERY =
             "update locks"
-                    + " set consumer_id = ''{1}'', expires = dateAdd(ms, {2,number,#}, getDate()), exclusive = {3}" 
-                    + " where lock_id = ''{0}'' and ((consumer_id <> ''{1}'' and expires <= getDate() and exclusive <> 1) or consumer_id = ''{1}'')";
-    
+                    + " set consumer_id = ?, expires = dateAdd(ms, ?, getDate()), exclusive = ?,"
+                    + " token = case when consumer_id = ? and expires > getDate() then token else token + 1 end"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires)"
+                    + " where lock_id = ? and (consumer_id = ? or (expires <= getDate() and exclusive <> 1))";
+
     /**
      * Insert new lock record if one does not yet exist.
-     * <p>For parameters see {@link #UPDATE_QUERY} info.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit<br/>
+     * 5 &ndash; lock identifier
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the inserted record.
      */
     public static final String INSERT_QUERY =
-            "insert into" 
-                    + " locks(lock_id, consumer_id, expires, exclusive)" 
-                    + " select ''{0}'', ''{1}'', dateAdd(ms, {2,number,#}, getDate()), {3}"
-                    + " where not exists (select * from locks where lock_id = ''{0}'')";
+            "insert into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token)"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires)"
+                    + " select ?, ?, dateAdd(ms, ?, getDate()), ?, 1"
+                    + " where not exists (select * from locks where lock_id = ?)";
+
+    /**
+     * Atomically update or insert record representing required lock in a single statement.
+     * <p>Updates the same records as {@link #UPDATE_QUERY} and inserts record if one does not yet exist.
+     * Requires SQL Server 2008 or later.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the updated or inserted record.
+     */
+    public static final String MERGE_QUERY =
+            "merge locks with (holdlock) as l"
+                    + " using (select ? as lock_id, ? as consumer_id, dateAdd(ms, ?, getDate()) as expires, ? as exclusive) as s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and (l.consumer_id = s.consumer_id or (l.expires <= getDate() and l.exclusive <> 1))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = s.exclusive,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > getDate() then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token) values (s.lock_id, s.consumer_id, s.expires, s.exclusive, 1)"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires);";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer and has not expired yet.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; expiration timeout<br/>
+     * 2 &ndash; lock identifier<br/>
+     * 3 &ndash; consumer identifier
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the renewed record.
+     */
+    public static final String RENEW_QUERY =
+            "update locks"
+                    + " set expires = dateAdd(ms, ?, getDate())"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires)"
+                    + " where lock_id = ? and consumer_id = ? and expires > getDate()";
 
     protected TransactSqlExpirableLock(DataSource dataSource, String lockId) {
         super(dataSource, lockId);
     }
 
-    private String getObtainQuery(String template) {
-        long timeout = getExpirationTimeout();
-        int bit = 0; // Lock is not exclusive, by default.
-        if (timeout < 0) {
-            bit = 1;
-        }
-        return format(template, getLockId(), getConsumerId(), max(timeout, 0), bit);
-    }
-
     protected String getUpdateQuery() {
-        return getObtainQuery(UPDATE_QUERY);
+        return UPDATE_QUERY;
     }
 
     protected String getInsertQuery() {
-        return getObtainQuery(INSERT_QUERY);
+        return INSERT_QUERY;
     }
-    
+
     protected String getReleaseQuery() {
-        return format(UPDATE_QUERY, getLockId(), getConsumerId(), -1, 0);
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return MERGE_QUERY;
+    }
+
+    /**
+     * Queries report remaining lease computed by the database clock.
+     */
+    @Override
+    protected boolean isLeaseReported() {
+        return true;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
     }
-}
\ No newline at end of file
+}
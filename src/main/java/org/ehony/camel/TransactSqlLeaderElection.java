@@ -0,0 +1,59 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class TransactSqlLeaderElection extends LeaderElection
+{
+
+    /**
+     * Query to select the leader record and heartbeat records of live members.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; escaped record identifier prefix followed by <code>%</code><br/>
+     * 2 &ndash; leader lock identifier
+     * </p>
+     * <b>Returns</b> identifiers, consumers and fencing tokens of records.
+     */
+    public static final String VIEW_QUERY =
+            "select lock_id, consumer_id, token from locks"
+                    + " where (lock_id like ? escape '\\' or lock_id = ?) and (expires > getDate() or exclusive = 1)";
+
+    /**
+     * Create election of the leader among members of the group with a random member identifier.
+     */
+    public TransactSqlLeaderElection(DataSource dataSource, String groupId) {
+        this(dataSource, new TransactSqlMembership(dataSource, groupId));
+    }
+
+    public TransactSqlLeaderElection(DataSource dataSource, DatabaseMembership membership) {
+        super(dataSource, membership);
+    }
+
+    public TransactSqlLeaderElection(DataSource dataSource, DatabaseMembership membership, ScheduledExecutorService scheduler) {
+        super(dataSource, membership, scheduler);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createLock(DataSource dataSource, String lockId) {
+        return new TransactSqlExpirableLock(dataSource, lockId);
+    }
+
+    @Override
+    protected String getViewQuery() {
+        return VIEW_QUERY;
+    }
+
+    @Override
+    protected void setViewParameters(PreparedStatement stmt, String prefix, String lockId) throws SQLException {
+        stmt.setString(1, DatabaseMembership.getPrefixPattern(prefix, TransactSqlMembership.WILDCARDS));
+        stmt.setString(2, lockId);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+
+import static org.apache.commons.lang.StringUtils.repeat;
+
+public class TransactSqlLockGroup extends DatabaseLockGroup
+{
+
+    /**
+     * Query pattern to obtain or renew a group of locks with a single statement.
+     * <p>Updates records of locks which have already expired and belong non-exclusively
+     * to another consumer or which belong to this consumer, and inserts missing records.
+     * Requires SQL Server 2008 or later.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2 &ndash; expiration timeout<br/>
+     * 3.. &ndash; lock identifiers, substituted for <code>{0}</code>
+     * </p>
+     * <b>Returns</b> identifier and fencing token of every obtained lock.
+     */
+    public static final String MERGE_QUERY =
+            "merge locks with (holdlock) as l"
+                    + " using (select v.lock_id, ? as consumer_id, dateAdd(ms, ?, getDate()) as expires"
+                    + " from (values {0}) as v(lock_id) where v.lock_id is not null) as s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and (l.consumer_id = s.consumer_id or (l.expires <= getDate() and l.exclusive <> 1))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = 0,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > getDate() then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token) values (s.lock_id, s.consumer_id, s.expires, 0, 1)"
+                    + " output inserted.lock_id, inserted.token;";
+
+    /**
+     * Query pattern to release a group of locks held by this consumer.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2.. &ndash; lock identifiers, substituted for <code>{0}</code>
+     * </p>
+     */
+    public static final String RELEASE_QUERY =
+            "update locks"
+                    + " set expires = dateAdd(ms, -1, getDate())"
+                    + " where consumer_id = ? and lock_id in ({0})";
+
+    private String acquireQuery, releaseQuery;
+
+    /**
+     * Create group of locks.
+     * <p>Every lock identifier is bound as a separate parameter, so group size
+     * is limited by 2100 parameters supported by SQL Server.</p>
+     */
+    public TransactSqlLockGroup(DataSource dataSource, Collection<String> lockIds) {
+        super(dataSource, lockIds);
+        int count = getLockIds().size();
+        acquireQuery = MERGE_QUERY.replace("{0}", repeat("(?)", ", ", count));
+        releaseQuery = RELEASE_QUERY.replace("{0}", repeat("?", ", ", count));
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return acquireQuery;
+    }
+
+    @Override
+    protected String getReleaseQuery() {
+        return releaseQuery;
+    }
+
+    @Override
+    protected void setAcquireParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException {
+        stmt.setString(1, getConsumerId());
+        stmt.setLong(2, getExpirationTimeout());
+        setLockIds(stmt, 3, lockIds);
+    }
+
+    @Override
+    protected void setReleaseParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException {
+        stmt.setString(1, getConsumerId());
+        setLockIds(stmt, 2, lockIds);
+    }
+
+    private static void setLockIds(PreparedStatement stmt, int offset, List<String> lockIds) throws SQLException {
+        for (int i = 0; i < lockIds.size(); i++) {
+            if (lockIds.get(i) == null) {
+                stmt.setNull(offset + i, Types.VARCHAR);
+            } else {
+                stmt.setString(offset + i, lockIds.get(i));
+            }
+        }
+    }
+}
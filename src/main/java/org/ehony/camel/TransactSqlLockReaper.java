@@ -0,0 +1,51 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Reaper of the locks table which schema is provided in <code>schema.sql</code>.
+ * <p>Query matches the filtered index on expiration, so reaping scans only
+ * non-exclusive records instead of the whole table.</p>
+ */
+public class TransactSqlLockReaper extends DatabaseLockReaper
+{
+
+    /**
+     * Query to delete a batch of records expired long ago.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; batch size<br/>
+     * 2 &ndash; retention
+     * </p>
+     */
+    public static final String REAP_QUERY =
+            "delete top (?) from locks"
+                    + " where expires < dateAdd(ms, -?, getDate()) and exclusive = 0";
+
+    public TransactSqlLockReaper(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    public TransactSqlLockReaper(DataSource dataSource, ScheduledExecutorService scheduler) {
+        super(dataSource, scheduler);
+    }
+
+    @Override
+    protected String getReapQuery() {
+        return REAP_QUERY;
+    }
+
+    @Override
+    protected void setReapParameters(PreparedStatement stmt, long retention, int batchSize) throws SQLException {
+        stmt.setInt(1, batchSize);
+        stmt.setLong(2, retention);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.UUID;
+
+public class TransactSqlMembership extends DatabaseMembership
+{
+
+    /**
+     * Query to select heartbeat records of live members.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; escaped record identifier prefix followed by <code>%</code>
+     * </p>
+     * <b>Returns</b> identifiers of heartbeat records.
+     */
+    public static final String MEMBERS_QUERY =
+            "select lock_id from locks"
+                    + " where lock_id like ? escape '\\' and expires > getDate()";
+
+    /**
+     * Characters which <code>like</code> patterns of SQL Server treat as wildcards.
+     */
+    static final String WILDCARDS = "%_[";
+
+    /**
+     * Create membership with a random member identifier.
+     */
+    public TransactSqlMembership(DataSource dataSource, String groupId) {
+        this(dataSource, groupId, UUID.randomUUID().toString());
+    }
+
+    public TransactSqlMembership(DataSource dataSource, String groupId, String memberId) {
+        super(dataSource, groupId, memberId);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createRecord(DataSource dataSource, String recordId) {
+        return new TransactSqlExpirableLock(dataSource, recordId);
+    }
+
+    @Override
+    protected String getMembersQuery() {
+        return MEMBERS_QUERY;
+    }
+
+    @Override
+    protected void setMembersParameters(PreparedStatement stmt, String prefix) throws SQLException {
+        stmt.setString(1, getPrefixPattern(prefix, WILDCARDS));
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+import static java.lang.Math.max;
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Expirable lock which keeps leadership on preferred consumers.
+ * <p>Holder writes its {@link #setPriority(int) priority} to the lock record.
+ * Expired lease is taken over by this consumer only after it has been expired for
+ * {@link #setTakeoverDelay(long) takeover delay}, so preferred consumers with shorter
+ * delay win the lock while they are alive. {@link #setPreemptive(boolean) Preemptive}
+ * consumer which fails to obtain the lock held with lower priority marks the record
+ * as preempted, so the holder can neither renew nor re-obtain its lease and hands
+ * the lock over as if the lease was lost.</p>
+ * <p>Requires <code>priority</code> and <code>preempted</code> columns which are
+ * added to the schema provided in <code>schema.sql</code> by <code>schema-priority.sql</code>.</p>
+ */
+public class TransactSqlPriorityLock extends TransactSqlExpirableLock
+{
+
+    /**
+     * Query to update record representing required lock which belongs to this consumer
+     * and is not preempted, or which lease has expired at least the takeover delay ago.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; consumer identifier<br/>
+     * 2 &ndash; expiration timeout<br/>
+     * 3 &ndash; lock exclusiveness bit<br/>
+     * 4 &ndash; consumer priority<br/>
+     * 5 &ndash; consumer identifier<br/>
+     * 6 &ndash; lock identifier<br/>
+     * 7 &ndash; consumer identifier<br/>
+     * 8 &ndash; takeover delay
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the updated record.
+     */
+    public static final String UPDATE_QUERY =
+            "update locks"
+                    + " set consumer_id = ?, expires = dateAdd(ms, ?, getDate()), exclusive = ?, priority = ?, preempted = 0,"
+                    + " token = case when consumer_id = ? and expires > getDate() then token else token + 1 end"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires)"
+                    + " where lock_id = ? and ((consumer_id = ? and preempted = 0)"
+                    + " or (expires <= dateAdd(ms, -?, getDate()) and exclusive <> 1))";
+
+    /**
+     * Insert new lock record if one does not yet exist.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit<br/>
+     * 5 &ndash; consumer priority<br/>
+     * 6 &ndash; lock identifier
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the inserted record.
+     */
+    public static final String INSERT_QUERY =
+            "insert into"
+                    + " locks(lock_id, consumer_id, expires, exclusive, token, priority)"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires)"
+                    + " select ?, ?, dateAdd(ms, ?, getDate()), ?, 1, ?"
+                    + " where not exists (select * from locks where lock_id = ?)";
+
+    /**
+     * Atomically update or insert record representing required lock in a single statement.
+     * <p>Updates the same records as {@link #UPDATE_QUERY}. Parameters 1&ndash;4 are the
+     * ones of {@link TransactSqlExpirableLock#MERGE_QUERY}.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 5 &ndash; consumer priority<br/>
+     * 6 &ndash; takeover delay
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the updated or inserted record.
+     */
+    public static final String MERGE_QUERY =
+            "merge locks with (holdlock) as l"
+                    + " using (select ? as lock_id, ? as consumer_id, dateAdd(ms, ?, getDate()) as expires, ? as exclusive,"
+                    + " ? as priority, ? as deferral) as s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and ((l.consumer_id = s.consumer_id and l.preempted = 0)"
+                    + " or (l.expires <= dateAdd(ms, -s.deferral, getDate()) and l.exclusive <> 1))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = s.exclusive,"
+                    + " priority = s.priority, preempted = 0,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > getDate() then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token, priority)"
+                    + " values (s.lock_id, s.consumer_id, s.expires, s.exclusive, 1, s.priority)"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires);";
+
+    /**
+     * Prolong lease of the lock which belongs to this consumer, has not expired yet
+     * and is not preempted. Parameters are the ones of {@link TransactSqlExpirableLock#RENEW_QUERY}.
+     * <b>Returns</b> fencing token and remaining lease of the renewed record.
+     */
+    public static final String RENEW_QUERY = TransactSqlExpirableLock.RENEW_QUERY + " and preempted = 0";
+
+    /**
+     * Mark live non-exclusive lock held with lower priority by another consumer as preempted.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; consumer identifier<br/>
+     * 3 &ndash; consumer priority
+     * </p>
+     */
+    public static final String PREEMPT_QUERY =
+            "update locks set preempted = 1"
+                    + " where lock_id = ? and consumer_id <> ? and priority < ?"
+                    + " and expires > getDate() and exclusive <> 1 and preempted = 0";
+
+    private int priority;
+    private long takeoverDelay;
+    private boolean preemptive;
+
+    public TransactSqlPriorityLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set priority of this consumer written to the lock record, zero by default.
+     * <p>Consumer with greater priority is preferred.</p>
+     *
+     * @param priority priority of this consumer.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public long getTakeoverDelay() {
+        return takeoverDelay;
+    }
+
+    /**
+     * Set time the lease must have been expired for before this consumer takes it over.
+     * <p>Less preferred consumers should defer takeover for a few check intervals of
+     * preferred ones, so preferred consumers obtain the lock first while they are alive.
+     * Delay does not apply to the lock which belongs to this consumer.</p>
+     *
+     * @param delay non-negative amount of msec, zero by default.
+     */
+    public void setTakeoverDelay(long delay) {
+        isTrue(delay >= 0, "Non-negative takeover delay expected.");
+        this.takeoverDelay = delay;
+    }
+
+    public boolean isPreemptive() {
+        return preemptive;
+    }
+
+    /**
+     * Set if this consumer preempts holders of lower priority.
+     * <p>Holder notices preemption when it renews or re-obtains the lease, so with
+     * {@link #setRenewalExecutor(java.util.concurrent.ScheduledExecutorService) renewal}
+     * it stops within a renewal interval, otherwise at the latest when its lease
+     * expires. Preempted record keeps the lease until holder releases it, which
+     * {@link SerialAccessRoutePolicy} does as soon as routes are drained, so lock is
+     * handed over without waiting for the lease to expire. Exclusive locks are never preempted.</p>
+     *
+     * @param preemptive <code>true</code> to preempt, <code>false</code> by default.
+     */
+    public void setPreemptive(boolean preemptive) {
+        this.preemptive = preemptive;
+    }
+
+    @Override
+    protected String getUpdateQuery() {
+        return UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getInsertQuery() {
+        return INSERT_QUERY;
+    }
+
+    /**
+     * Release is not affected by preemption, so preempted holder releases the lock immediately.
+     */
+    @Override
+    protected String getReleaseQuery() {
+        return TransactSqlExpirableLock.UPDATE_QUERY;
+    }
+
+    @Override
+    protected String getAcquireQuery() {
+        return MERGE_QUERY;
+    }
+
+    @Override
+    protected String getRenewQuery() {
+        return RENEW_QUERY;
+    }
+
+    @Override
+    protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+        boolean exclusive = getExpirationTimeout() < 0;
+        long timeout = max(getExpirationTimeout(), 0);
+        switch (query) {
+            case UPDATE:
+                stmt.setString(1, getConsumerId());
+                stmt.setLong(2, timeout);
+                stmt.setBoolean(3, exclusive);
+                stmt.setInt(4, priority);
+                stmt.setString(5, getConsumerId());
+                stmt.setString(6, getLockId());
+                stmt.setString(7, getConsumerId());
+                stmt.setLong(8, takeoverDelay);
+                break;
+            case INSERT:
+                stmt.setString(1, getLockId());
+                stmt.setString(2, getConsumerId());
+                stmt.setLong(3, timeout);
+                stmt.setBoolean(4, exclusive);
+                stmt.setInt(5, priority);
+                stmt.setString(6, getLockId());
+                break;
+            case ACQUIRE:
+                super.setParameters(query, stmt);
+                stmt.setInt(5, priority);
+                stmt.setLong(6, takeoverDelay);
+                break;
+            default:
+                super.setParameters(query, stmt);
+        }
+    }
+
+    @Override
+    protected void onContended(Connection c) throws SQLException {
+        if (preemptive) {
+            PreparedStatement stmt = c.prepareStatement(PREEMPT_QUERY);
+            try {
+                stmt.setString(1, getLockId());
+                stmt.setString(2, getConsumerId());
+                stmt.setInt(3, priority);
+                stmt.executeUpdate();
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+}
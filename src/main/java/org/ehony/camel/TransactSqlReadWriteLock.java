@@ -0,0 +1,206 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+/**
+ * Read/write lock which keeps shared leases of readers in <code>lock_shares</code> table
+ * and exclusive lease of the writer in <code>locks</code> table.
+ */
+public class TransactSqlReadWriteLock extends DatabaseReadWriteLock
+{
+
+    /**
+     * Obtain or prolong shared lease of the reader unless writer holds
+     * or claims the lock.
+     * <p>Writer record is read with update lock, so writer cannot claim
+     * the lock between the check and the merge.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; reader consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock identifier<br/>
+     * 5 &ndash; reader consumer identifier
+     * </p>
+     */
+    public static final String SHARE_QUERY =
+            "merge lock_shares with (holdlock) as s"
+                    + " using (select ? as lock_id, ? as consumer_id, dateAdd(ms, ?, getDate()) as expires"
+                    + " where not exists (select * from locks with (updlock, holdlock)"
+                    + " where lock_id = ? and consumer_id <> ? and expires > getDate())) as v"
+                    + " on s.lock_id = v.lock_id and s.consumer_id = v.consumer_id"
+                    + " when matched then update set expires = v.expires"
+                    + " when not matched then insert (lock_id, consumer_id, expires) values (v.lock_id, v.consumer_id, v.expires);";
+
+    /**
+     * Prolong shared lease of the reader which has not expired yet.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; expiration timeout<br/>
+     * 2 &ndash; lock identifier<br/>
+     * 3 &ndash; reader consumer identifier
+     * </p>
+     */
+    public static final String RENEW_SHARE_QUERY =
+            "update lock_shares"
+                    + " set expires = dateAdd(ms, ?, getDate())"
+                    + " where lock_id = ? and consumer_id = ? and expires > getDate()";
+
+    /**
+     * Release shared lease of the reader.
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; reader consumer identifier
+     * </p>
+     */
+    public static final String RELEASE_SHARE_QUERY =
+            "delete from lock_shares where lock_id = ? and consumer_id = ?";
+
+    /**
+     * Claim the lock record for the writer and report it obtained only if no
+     * reader holds a shared lease.
+     * <p>Claim is kept when readers are present, so new readers are not admitted
+     * while the writer retries. Writer which gives up withdraws its claim.
+     * Merges the same records as {@link TransactSqlExpirableLock#MERGE_QUERY}.</p>
+     * <p>
+     * <b>Parameters</b><br/>
+     * 1 &ndash; lock identifier<br/>
+     * 2 &ndash; writer consumer identifier<br/>
+     * 3 &ndash; expiration timeout<br/>
+     * 4 &ndash; lock exclusiveness bit<br/>
+     * 5 &ndash; lock identifier
+     * </p>
+     * <b>Returns</b> fencing token and remaining lease of the obtained lock.
+     */
+    public static final String CLAIM_QUERY =
+            "set nocount on;"
+                    + " declare @claim table (token bigint, lease int);"
+                    + " merge locks with (holdlock) as l"
+                    + " using (select ? as lock_id, ? as consumer_id, dateAdd(ms, ?, getDate()) as expires, ? as exclusive) as s"
+                    + " on l.lock_id = s.lock_id"
+                    + " when matched and (l.consumer_id = s.consumer_id or (l.expires <= getDate() and l.exclusive <> 1))"
+                    + " then update set consumer_id = s.consumer_id, expires = s.expires, exclusive = s.exclusive,"
+                    + " token = case when l.consumer_id = s.consumer_id and l.expires > getDate() then l.token else l.token + 1 end"
+                    + " when not matched"
+                    + " then insert (lock_id, consumer_id, expires, exclusive, token) values (s.lock_id, s.consumer_id, s.expires, s.exclusive, 1)"
+                    + " output inserted.token, datediff(ms, getDate(), inserted.expires) into @claim;"
+                    + " select token, lease from @claim"
+                    + " where not exists (select * from lock_shares where lock_id = ? and expires > getDate());";
+
+    public TransactSqlReadWriteLock(DataSource dataSource, String lockId) {
+        super(dataSource, lockId);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createReadLock(DataSource dataSource, String lockId) {
+        return new ReadLock(dataSource, lockId);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createWriteLock(DataSource dataSource, String lockId) {
+        return new WriteLock(dataSource, lockId);
+    }
+
+    /**
+     * Reader which holds shared lease.
+     */
+    private static class ReadLock extends ExpirableDatabaseLock
+    {
+
+        ReadLock(DataSource dataSource, String lockId) {
+            super(dataSource, lockId);
+        }
+
+        /**
+         * Merge both updates and inserts the shared lease.
+         */
+        @Override
+        protected String getUpdateQuery() {
+            return SHARE_QUERY;
+        }
+
+        @Override
+        protected String getInsertQuery() {
+            return SHARE_QUERY;
+        }
+
+        @Override
+        protected String getAcquireQuery() {
+            return SHARE_QUERY;
+        }
+
+        @Override
+        protected String getReleaseQuery() {
+            return RELEASE_SHARE_QUERY;
+        }
+
+        @Override
+        protected String getRenewQuery() {
+            return RENEW_SHARE_QUERY;
+        }
+
+        @Override
+        protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+            switch (query) {
+                case ACQUIRE:
+                case UPDATE:
+                case INSERT:
+                    stmt.setString(1, getLockId());
+                    stmt.setString(2, getConsumerId());
+                    stmt.setLong(3, getExpirationTimeout());
+                    stmt.setString(4, getLockId());
+                    stmt.setString(5, getConsumerId());
+                    break;
+                case RELEASE:
+                    stmt.setString(1, getLockId());
+                    stmt.setString(2, getConsumerId());
+                    break;
+                case RENEW:
+                    stmt.setLong(1, getExpirationTimeout());
+                    stmt.setString(2, getLockId());
+                    stmt.setString(3, getConsumerId());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writer which claims the lock record before readers drain.
+     */
+    private static class WriteLock extends TransactSqlExpirableLock
+    {
+
+        WriteLock(DataSource dataSource, String lockId) {
+            super(dataSource, lockId);
+        }
+
+        @Override
+        protected String getAcquireQuery() {
+            return CLAIM_QUERY;
+        }
+
+        @Override
+        protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+            super.setParameters(query, stmt);
+            if (query == Query.ACQUIRE) {
+                stmt.setString(5, getLockId());
+            }
+        }
+
+        /**
+         * Withdraw the claim, so readers are not locked out for the rest of its lease.
+         */
+        @Override
+        protected void onAcquireFailed() throws SQLException {
+            update(Query.RELEASE);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import javax.sql.DataSource;
+
+public class TransactSqlSemaphore extends DatabaseSemaphore
+{
+
+    public TransactSqlSemaphore(DataSource dataSource, String semaphoreId, int permits) {
+        super(dataSource, semaphoreId, permits);
+    }
+
+    @Override
+    protected ExpirableDatabaseLock createSlot(DataSource dataSource, String slotId) {
+        return new TransactSqlExpirableLock(dataSource, slotId);
+    }
+}
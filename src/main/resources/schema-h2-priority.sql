@@ -0,0 +1,7 @@
+-- Columns required by H2PriorityLock, applied to the locks table
+-- created from schema-h2.sql, whether new or already in use.
+-- Existing records get the lowest priority and are not preempted.
+
+alter table locks add column priority int default 0 not null;
+
+alter table locks add column preempted boolean default false not null
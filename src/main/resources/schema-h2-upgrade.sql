@@ -0,0 +1,7 @@
+-- Upgrades the locks table created from an earlier schema-h2.sql to the current one:
+-- fencing token column and index on expiration.
+-- Existing records start with token 0, so their next holder gets token 1.
+
+alter table locks add column token bigint default 0 not null;
+
+create index locks_expires on locks (expires)
@@ -0,0 +1,9 @@
+create table locks (
+  lock_id varchar(255) not null primary key,
+  consumer_id varchar(255) not null,
+  expires timestamp not null,
+  exclusive boolean default false not null,
+  token bigint default 0 not null
+  );
+
+create index locks_expires on locks (expires)
\ No newline at end of file
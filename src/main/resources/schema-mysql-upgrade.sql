@@ -0,0 +1,4 @@
+-- Upgrades the locks table created from an earlier schema-mysql.sql to the current one.
+-- Existing records start with token 0, so their next holder gets token 1.
+
+alter table locks add column token bigint not null default 0
@@ -0,0 +1,7 @@
+create table locks (
+  lock_id varchar(255) not null primary key,
+  consumer_id varchar(255) not null,
+  expires datetime(3) not null,
+  exclusive tinyint(1) not null default 0,
+  token bigint not null default 0
+  ) engine = InnoDB
\ No newline at end of file
@@ -0,0 +1,4 @@
+-- Upgrades the locks table created from an earlier schema-oracle.sql to the current one.
+-- Existing records start with token 0, so their next holder gets token 1.
+
+alter table locks add token number(19) default 0 not null
@@ -0,0 +1,7 @@
+create table locks (
+  lock_id varchar2(255) not null primary key,
+  consumer_id varchar2(255) not null,
+  expires timestamp with time zone not null,
+  exclusive number(1) default 0 not null,
+  token number(19) default 0 not null
+  )
\ No newline at end of file
@@ -0,0 +1,7 @@
+create table locks (
+  lock_id varchar(255) not null primary key,
+  consumer_id varchar(255) not null,
+  expires timestamp with time zone not null,
+  exclusive boolean not null default false,
+  token bigint not null default 0
+  )
\ No newline at end of file
@@ -0,0 +1,7 @@
+-- Columns required by TransactSqlPriorityLock, applied to the locks table
+-- created from schema.sql, whether new or already in use.
+-- Existing records get the lowest priority and are not preempted.
+
+alter table [locks] add
+  priority int not null default 0,
+  preempted bit not null default 0
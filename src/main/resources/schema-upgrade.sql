@@ -0,0 +1,14 @@
+-- Upgrades the locks table created from an earlier schema.sql to the current one:
+-- fencing token column, index on expiration and shares of read-write locks.
+-- Existing records start with token 0, so their next holder gets token 1.
+
+alter table [locks] add token bigint not null default 0
+
+create index [locks_expires] on [locks] (expires) where exclusive = 0
+
+create table [lock_shares] (
+  lock_id varchar(255) not null,
+  consumer_id varchar(255) not null,
+  expires datetime not null,
+  primary key (lock_id, consumer_id)
+  )
@@ -2,5 +2,15 @@ create table [locks] (
   lock_id varchar(255) not null primary key,
   consumer_id varchar(255) not null,
   expires datetime not null,
-  exclusive bit default 0
+  exclusive bit default 0,
+  token bigint not null default 0
+  )
+
+create index [locks_expires] on [locks] (expires) where exclusive = 0
+
+create table [lock_shares] (
+  lock_id varchar(255) not null,
+  consumer_id varchar(255) not null,
+  expires datetime not null,
+  primary key (lock_id, consumer_id)
   )
\ No newline at end of file
@@ -0,0 +1,186 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DatabaseLockGroupTest
+{
+
+    private static final String ACQUIRE_QUERY = "acquire",
+                                RELEASE_QUERY = "release";
+
+    private final AtomicInteger acquisitions = new AtomicInteger();
+    private PreparedStatement releaseStatement;
+    // Locks which this consumer can obtain.
+    private volatile List<String> available;
+    // Identifiers bound to the latest acquire statement.
+    private volatile List<String> requested;
+    private volatile boolean reachable;
+
+    @Before
+    public void setUp() {
+        acquisitions.set(0);
+        available = asList("a", "b");
+        reachable = true;
+    }
+
+    private DatabaseLockGroup createGroup() throws SQLException {
+        PreparedStatement acquireStatement = mock(PreparedStatement.class);
+        when(acquireStatement.executeQuery()).thenAnswer(new Answer<ResultSet>() {
+            @Override
+            public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+                acquisitions.incrementAndGet();
+                if (!reachable) {
+                    throw new SQLException("Connection lost.");
+                }
+                final Iterator<String> rows = available.iterator();
+                final String[] row = new String[1];
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.next()).thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                        row[0] = rows.hasNext() ? rows.next() : null;
+                        return row[0] != null;
+                    }
+                });
+                when(rs.getString(1)).thenAnswer(new Answer<String>() {
+                    @Override
+                    public String answer(InvocationOnMock invocation) throws Throwable {
+                        return row[0];
+                    }
+                });
+                when(rs.getLong(2)).thenReturn(1L);
+                return rs;
+            }
+        });
+        releaseStatement = mock(PreparedStatement.class);
+
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(eq(ACQUIRE_QUERY))).thenReturn(acquireStatement);
+        when(connection.prepareStatement(eq(RELEASE_QUERY))).thenReturn(releaseStatement);
+
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        DatabaseLockGroup group = new DatabaseLockGroup(dataSource, asList("a", "b", "c")) {
+
+            @Override
+            protected String getAcquireQuery() {
+                return ACQUIRE_QUERY;
+            }
+
+            @Override
+            protected String getReleaseQuery() {
+                return RELEASE_QUERY;
+            }
+
+            @Override
+            protected void setAcquireParameters(PreparedStatement stmt, List<String> lockIds) {
+                requested = new ArrayList<String>(lockIds);
+            }
+
+            @Override
+            protected void setReleaseParameters(PreparedStatement stmt, List<String> lockIds) throws SQLException {
+                for (int i = 0; i < lockIds.size(); i++) {
+                    stmt.setString(i + 1, lockIds.get(i));
+                }
+            }
+        };
+        group.setAcquireInterval(60000);
+        return group;
+    }
+
+    @Test
+    public void testSingleStatementPerTick() throws Exception {
+        DatabaseLockGroup group = createGroup();
+        Lock a = group.getLock("a"), b = group.getLock("b"), c = group.getLock("c");
+
+        assertTrue(a.tryLock());
+        assertTrue(b.tryLock());
+        assertFalse(c.tryLock());
+        assertEquals(1, acquisitions.get());
+        assertEquals(new HashSet<String>(asList("a", "b")), group.getHeldLockIds());
+        assertEquals(1, group.getFencingToken("a"));
+        assertEquals(0, group.getFencingToken("c"));
+
+        // Explicit tick renews all locks at once.
+        available = asList("b", "c");
+        assertEquals(new HashSet<String>(asList("b", "c")), group.acquire());
+        assertEquals(2, acquisitions.get());
+        assertFalse(a.tryLock());
+        assertTrue(c.tryLock());
+    }
+
+    @Test
+    public void testUnlock() throws Exception {
+        DatabaseLockGroup group = createGroup();
+        Lock a = group.getLock("a");
+
+        assertTrue(a.tryLock());
+        a.unlock();
+        verify(releaseStatement).setString(1, "a");
+        verify(releaseStatement).setString(2, null);
+        assertFalse(group.getHeldLockIds().contains("a"));
+
+        // Released lock is obtained again only when requested.
+        assertEquals(Collections.singleton("b"), group.getHeldLockIds());
+        assertTrue(a.tryLock());
+        assertEquals(2, acquisitions.get());
+    }
+
+    @Test
+    public void testFailedTick() throws Exception {
+        DatabaseLockGroup group = createGroup();
+        Lock a = group.getLock("a");
+
+        reachable = false;
+        try {
+            a.tryLock();
+            fail("Expected failed tick.");
+        } catch (LockException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertTrue(group.getHeldLockIds().isEmpty());
+
+        // Failed tick does not count as fresh, so next attempt queries database again.
+        reachable = true;
+        assertTrue(a.tryLock());
+        assertEquals(2, acquisitions.get());
+    }
+
+    @Test
+    public void testAcquireSubset() throws Exception {
+        DatabaseLockGroup group = createGroup();
+        assertEquals(new HashSet<String>(asList("a", "b")), group.acquire());
+
+        // Held lock which is not requested is released before the rest is obtained.
+        available = asList("b", "c");
+        assertEquals(new HashSet<String>(asList("b", "c")), group.acquire(asList("b", "c")));
+        verify(releaseStatement).setString(1, "a");
+        verify(releaseStatement).setString(2, null);
+        verify(releaseStatement).setString(3, null);
+        assertEquals(asList(null, "b", "c"), requested);
+
+        // Lock which is not requested any more is not obtained on later ticks.
+        group.acquire();
+        assertEquals(asList(null, "b", "c"), requested);
+        verify(releaseStatement, times(1)).executeUpdate();
+    }
+}
@@ -14,10 +14,12 @@ import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 
 import static java.lang.Thread.*;
 import static org.apache.commons.lang.StringUtils.join;
+import static org.ehony.camel.MockStatements.mockStatement;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -31,6 +33,7 @@ public class DatabaseLockTest
     private static final String UPDATE_QUERY = "update",
                                 INSERT_QUERY = "insert",
                                 RELEASE_QUERY = "release",
+                                ACQUIRE_QUERY = "acquire",
                                 LOCK_ID = "myLock";
     
     private Queue<Integer> cache = new LinkedList<Integer>(),
@@ -44,6 +47,10 @@ public class DatabaseLockTest
     private volatile boolean canUpdate, canInsert;
     private volatile String ownerId;
 
+    // Counters of database round trips.
+    private final AtomicInteger connections = new AtomicInteger(),
+                                statements = new AtomicInteger();
+
     @Before
     @SuppressWarnings("unchecked")
     public void setUp() throws Exception {
@@ -61,14 +68,21 @@ public class DatabaseLockTest
         canUpdate = false;
         canInsert = true;
         ownerId = null;
+        
+        connections.set(0);
+        statements.set(0);
+    }
+    
+    private void roundTrip() {
+        statements.incrementAndGet();
     }
     
     private DataSource createDataSource(final String consumerId) {
         try {
-            PreparedStatement updateStatement = mock(PreparedStatement.class);
-            when(updateStatement.executeUpdate()).thenAnswer(new Answer<Integer>() {
+            PreparedStatement updateStatement = mockStatement(new Answer<Integer>() {
                 @Override
                 public Integer answer(InvocationOnMock invocation) throws Throwable {
+                    roundTrip();
                     // We can lock record only if it belongs to nobody or its is ours.
                     if (canUpdate && (ownerId == null || ownerId.equals(consumerId))) {
                         ownerId = consumerId;
@@ -78,10 +92,10 @@ public class DatabaseLockTest
                 }
             });
             
-            PreparedStatement insertStatement = mock(PreparedStatement.class);
-            when(insertStatement.executeUpdate()).thenAnswer(new Answer<Integer>() {
+            PreparedStatement insertStatement = mockStatement(new Answer<Integer>() {
                 @Override
                 public Integer answer(InvocationOnMock invocation)throws Throwable {
+                    roundTrip();
                     if (canInsert) {
                         // We inserted a new record and locked our lock.
                         // New lock with the same name cannot be inserted.
@@ -94,10 +108,10 @@ public class DatabaseLockTest
                 }
             });
             
-            PreparedStatement releaseStatement = mock(PreparedStatement.class);
-            when(releaseStatement.executeUpdate()).thenAnswer(new Answer<Integer>() {
+            PreparedStatement releaseStatement = mockStatement(new Answer<Integer>() {
                 @Override
                 public Integer answer(InvocationOnMock invocation) throws Throwable {
+                    roundTrip();
                     // We can unlock record only is we have locked it.
                     if (consumerId.equals(ownerId)) {
                         ownerId = null;
@@ -107,13 +121,42 @@ public class DatabaseLockTest
                 }
             });
             
+            PreparedStatement acquireStatement = mockStatement(new Answer<Integer>() {
+                @Override
+                public Integer answer(InvocationOnMock invocation) throws Throwable {
+                    roundTrip();
+                    // Merge either inserts a new record or updates existing one.
+                    synchronized (DatabaseLockTest.this) {
+                        if (canInsert) {
+                            canUpdate = true;
+                            canInsert = false;
+                            ownerId = consumerId;
+                            return 1;
+                        }
+                        if (ownerId == null || ownerId.equals(consumerId)) {
+                            ownerId = consumerId;
+                            return 1;
+                        }
+                    }
+                    return 0;
+                }
+            });
+            
             Connection connection = mock(Connection.class);
             when(connection.prepareStatement(eq(UPDATE_QUERY))).thenReturn(updateStatement);
             when(connection.prepareStatement(eq(INSERT_QUERY))).thenReturn(insertStatement);
             when(connection.prepareStatement(eq(RELEASE_QUERY))).thenReturn(releaseStatement);
+            when(connection.prepareStatement(eq(ACQUIRE_QUERY))).thenReturn(acquireStatement);
             
+            final Connection c = connection;
             DataSource dataSource = mock(DataSource.class);
-            when(dataSource.getConnection()).thenReturn(connection);
+            when(dataSource.getConnection()).thenAnswer(new Answer<Connection>() {
+                @Override
+                public Connection answer(InvocationOnMock invocation) throws Throwable {
+                    connections.incrementAndGet();
+                    return c;
+                }
+            });
             
             return dataSource;
         } catch (Exception e) {
@@ -122,6 +165,10 @@ public class DatabaseLockTest
     }
     
     private Lock createLock(final String consumerId) {
+        return createLock(consumerId, false);
+    }
+    
+    private Lock createLock(final String consumerId, final boolean atomic) {
         return new DatabaseLock(createDataSource(consumerId), LOCK_ID) {
 
             @Override
@@ -129,6 +176,11 @@ public class DatabaseLockTest
                 return consumerId;
             }
 
+            @Override
+            protected String getAcquireQuery() {
+                return atomic ? ACQUIRE_QUERY : null;
+            }
+
             @Override
             protected String getUpdateQuery() {
                 return UPDATE_QUERY;
@@ -185,4 +237,130 @@ public class DatabaseLockTest
         // TODO Check array to string conversion.
         // assertEquals(reference, join(cache, ", "));
     }
+
+    @Test
+    public void testAtomicAcquire() throws Exception {
+        // Record does not exist yet, so update misses and insert is required.
+        Lock lock = createLock("consumer", false);
+        assertTrue(lock.tryLock());
+        assertEquals(1, connections.get());
+        assertEquals(2, statements.get());
+
+        setUp();
+        lock = createLock("consumer", true);
+        assertTrue(lock.tryLock());
+        assertEquals(1, connections.get());
+        assertEquals(1, statements.get());
+        
+        // Lock belongs to another consumer.
+        assertFalse(createLock("another", true).tryLock(0, TimeUnit.MILLISECONDS));
+        lock.unlock();
+        assertTrue(createLock("another", true).tryLock());
+    }
+
+    @Test
+    public void testRetryDelayCap() {
+        RetryStrategy exponential = new ExponentialRetryStrategy(10, 100),
+                      jitter = new DecorrelatedJitterRetryStrategy(10, 100);
+        long a = 0, b = 0;
+        for (int i = 1; i < 100; i++) {
+            a = exponential.getDelay(i, a);
+            b = jitter.getDelay(i, b);
+            assertTrue(a >= 10 && a <= 100);
+            assertTrue(b >= 10 && b <= 100);
+        }
+        assertEquals(100, a);
+    }
+
+    @Test
+    public void testRetryDelay() {
+        DatabaseLock lock = (DatabaseLock) createLock("consumer");
+        lock.setRetryDelay(20);
+        assertEquals(20, lock.getRetryDelay());
+        // Delay follows the strategy which replaced the fixed one.
+        lock.setRetryStrategy(new ExponentialRetryStrategy(50, 400));
+        assertEquals(50, lock.getRetryDelay());
+    }
+
+    @Test
+    public void testReleaseNotification() throws Exception {
+        InMemoryLockReleaseNotifier notifier = new InMemoryLockReleaseNotifier();
+        final DatabaseLock holder = (DatabaseLock) createLock("holder"),
+                           waiter = (DatabaseLock) createLock("waiter");
+        holder.setReleaseNotifier(notifier);
+        waiter.setReleaseNotifier(notifier);
+        // Without notification waiter would notice release only in a minute.
+        waiter.setRetryDelay(60000);
+        
+        assertTrue(holder.tryLock());
+        assertFalse(waiter.tryLock(100, TimeUnit.MILLISECONDS));
+        
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return waiter.tryLock(10, TimeUnit.SECONDS);
+            }
+        });
+        new Thread(task).start();
+        sleep(100);
+        long ts = System.nanoTime();
+        holder.unlock();
+        assertTrue(task.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - ts < TimeUnit.SECONDS.toNanos(1));
+        // Locks nobody waits for are not tracked.
+        assertEquals(0, notifier.getSignalCount());
+    }
+
+    @Test
+    public void testReleaseListenerRemoval() throws Exception {
+        InMemoryLockReleaseNotifier notifier = new InMemoryLockReleaseNotifier();
+        Runnable listener = mock(Runnable.class);
+        notifier.addListener(LOCK_ID, listener);
+        assertFalse(notifier.awaitRelease(LOCK_ID, 10));
+        assertEquals(1, notifier.getSignalCount());
+        notifier.released(LOCK_ID);
+        verify(listener).run();
+
+        notifier.removeListener(LOCK_ID, listener);
+        assertEquals(0, notifier.getSignalCount());
+        notifier.released(LOCK_ID);
+        verify(listener).run();
+    }
+
+    @Test
+    public void testAcquireAsync() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            DatabaseLock holder = (DatabaseLock) createLock("holder"),
+                         waiter = (DatabaseLock) createLock("waiter");
+            waiter.setAsyncExecutor(executor);
+            waiter.setRetryDelay(20);
+
+            assertTrue(holder.tryLock());
+            assertNull(waiter.acquireAsync(100).get(1, TimeUnit.SECONDS));
+
+            // Many pending acquisitions share a single thread.
+            List<CompletableFuture<LockLease>> futures = new ArrayList<CompletableFuture<LockLease>>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(waiter.acquireAsync(5000));
+            }
+            sleep(100);
+            for (CompletableFuture<LockLease> future : futures) {
+                assertFalse(future.isDone());
+            }
+
+            holder.unlock();
+            for (CompletableFuture<LockLease> future : futures) {
+                assertNotNull(future.get(1, TimeUnit.SECONDS));
+            }
+            assertEquals(100, waiter.getHoldCount());
+            for (CompletableFuture<LockLease> future : futures) {
+                future.get().release().get(1, TimeUnit.SECONDS);
+            }
+            assertEquals(0, waiter.getHoldCount());
+            assertTrue(holder.tryLock());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
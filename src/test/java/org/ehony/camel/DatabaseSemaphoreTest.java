@@ -0,0 +1,208 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import static java.lang.Thread.sleep;
+import static org.ehony.camel.MockStatements.mockStatement;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DatabaseSemaphoreTest
+{
+
+    private static final String UPDATE_QUERY = "update",
+                                INSERT_QUERY = "insert",
+                                RELEASE_QUERY = "release",
+                                RENEW_QUERY = "renew",
+                                SEMAPHORE_ID = "mySemaphore";
+
+    // Owners of slot records.
+    private final ConcurrentMap<String, String> owners = new ConcurrentHashMap<String, String>();
+
+    @Before
+    public void setUp() {
+        owners.clear();
+    }
+
+    private ExpirableDatabaseLock createSlot(final String node, final String slotId) throws SQLException {
+        PreparedStatement updateStatement = mockStatement(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                String owner = owners.putIfAbsent(slotId, node);
+                return owner == null || owner.equals(node) ? 1 : 0;
+            }
+        });
+        PreparedStatement releaseStatement = mockStatement(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                return owners.remove(slotId, node) ? 1 : 0;
+            }
+        });
+        PreparedStatement insertStatement = mockStatement(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                return 0;
+            }
+        });
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(eq(UPDATE_QUERY))).thenReturn(updateStatement);
+        when(connection.prepareStatement(eq(INSERT_QUERY))).thenReturn(insertStatement);
+        when(connection.prepareStatement(eq(RELEASE_QUERY))).thenReturn(releaseStatement);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        return new ExpirableDatabaseLock(dataSource, slotId) {
+
+            @Override
+            protected String getUpdateQuery() {
+                return UPDATE_QUERY;
+            }
+
+            @Override
+            protected String getInsertQuery() {
+                return INSERT_QUERY;
+            }
+
+            @Override
+            protected String getReleaseQuery() {
+                return RELEASE_QUERY;
+            }
+
+            @Override
+            protected String getRenewQuery() {
+                return RENEW_QUERY;
+            }
+        };
+    }
+
+    private DatabaseSemaphore createSemaphore(final String node, int permits) {
+        return new DatabaseSemaphore(mock(DataSource.class), SEMAPHORE_ID, permits) {
+
+            @Override
+            protected ExpirableDatabaseLock createSlot(DataSource dataSource, String slotId) {
+                try {
+                    return DatabaseSemaphoreTest.this.createSlot(node, slotId);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testPermits() {
+        DatabaseSemaphore a = createSemaphore("a", 2),
+                          b = createSemaphore("b", 2),
+                          c = createSemaphore("c", 2);
+        assertEquals(SEMAPHORE_ID + "#0", a.getSlots().get(0).getLockId());
+
+        assertTrue(a.tryAcquire());
+        assertTrue(b.tryAcquire());
+        assertFalse(c.tryAcquire());
+        assertNotSame(a.getHeldSlot(), b.getHeldSlot());
+
+        a.release();
+        assertNull(a.getHeldSlot());
+        assertTrue(c.tryAcquire());
+        assertFalse(a.tryAcquire());
+    }
+
+    @Test
+    public void testReentrantPermit() {
+        DatabaseSemaphore a = createSemaphore("a", 1),
+                          b = createSemaphore("b", 1);
+        Lock permit = a.getLock();
+        assertTrue(permit.tryLock());
+        ExpirableDatabaseLock slot = a.getHeldSlot();
+        assertTrue(permit.tryLock());
+        assertSame(slot, a.getHeldSlot());
+
+        // Permit is released with the last hold only.
+        permit.unlock();
+        assertFalse(b.tryAcquire());
+        permit.unlock();
+        assertTrue(b.tryAcquire());
+    }
+
+    @Test
+    public void testRetryStrategy() throws Exception {
+        DatabaseSemaphore a = createSemaphore("a", 1),
+                          b = createSemaphore("b", 1);
+        final BlockingQueue<Integer> attempts = new LinkedBlockingQueue<Integer>();
+        b.setRetryStrategy(new RetryStrategy() {
+            @Override
+            public long getDelay(int attempt, long previous) {
+                attempts.add(attempt);
+                return 20;
+            }
+        });
+        assertTrue(a.tryAcquire());
+        assertFalse(b.getLock().tryLock(200, TimeUnit.MILLISECONDS));
+        // Pauses between attempts follow the strategy of the semaphore.
+        assertEquals(Integer.valueOf(1), attempts.poll());
+        assertEquals(Integer.valueOf(2), attempts.poll());
+
+        // Slots are held by the consumer of the semaphore.
+        b.setConsumerId("b");
+        assertEquals("b", b.getSlots().get(0).getConsumerId());
+    }
+
+    @Test
+    public void testPermitLease() throws Exception {
+        DatabaseSemaphore a = createSemaphore("a", 1);
+        a.setExpirationTimeout(300);
+        LeasedLock permit = a.getLock();
+        assertEquals(0, permit.getRemainingLease());
+        assertTrue(permit.tryLock());
+        long remaining = permit.getRemainingLease();
+        assertTrue("Remaining lease " + remaining, remaining > 0 && remaining <= 300);
+        permit.unlock();
+        assertEquals(0, permit.getRemainingLease());
+    }
+
+    @Test
+    public void testExpiredPermit() throws Exception {
+        DatabaseSemaphore a = createSemaphore("a", 1);
+        // Lease is neither renewed nor re-obtained by a lock check before it expires.
+        a.setExpirationTimeout(300);
+        final BoundedAccessRoutePolicy policy = new BoundedAccessRoutePolicy(a);
+        policy.setLockObtainDelay(10000);
+        CamelContext context = new DefaultCamelContext();
+        try {
+            context.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() throws Exception {
+                    from("direct:in").routeId("bounded").routePolicy(policy).to("mock:out");
+                }
+            });
+            context.start();
+            for (int i = 0; i < 50 && context.getRouteStatus("bounded") != ServiceStatus.Started; i++) {
+                sleep(10);
+            }
+            assertEquals(ServiceStatus.Started, context.getRouteStatus("bounded"));
+
+            // Route stops on the local lease deadline of the permit.
+            sleep(600);
+            assertEquals(ServiceStatus.Stopped, context.getRouteStatus("bounded"));
+        } finally {
+            policy.shutdown();
+            context.stop();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Thread.sleep;
+import static org.ehony.camel.MockStatements.mockStatement;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ExpirableDatabaseLockTest
+{
+
+    private static final String UPDATE_QUERY = "update",
+                                INSERT_QUERY = "insert",
+                                RELEASE_QUERY = "release",
+                                RENEW_QUERY = "renew",
+                                LOCK_ID = "myLock";
+
+    private ScheduledExecutorService executor;
+    private static final long TOKEN = 42;
+
+    private final AtomicInteger renewals = new AtomicInteger(), updates = new AtomicInteger();
+    // Represent ability of this consumer to prolong the lease and reach the database on release.
+    private volatile boolean canRenew, canRelease;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        renewals.set(0);
+        updates.set(0);
+        canRenew = true;
+        canRelease = true;
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private ExpirableDatabaseLock createLock() throws SQLException {
+        // Update outputs fencing token of the obtained lock.
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true);
+        when(rs.getLong(1)).thenReturn(TOKEN);
+        PreparedStatement updateStatement = mock(PreparedStatement.class);
+        when(updateStatement.execute()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                updates.incrementAndGet();
+                return true;
+            }
+        });
+        when(updateStatement.getResultSet()).thenReturn(rs);
+
+        PreparedStatement releaseStatement = mock(PreparedStatement.class);
+        when(releaseStatement.execute()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                if (!canRelease) {
+                    throw new SQLException("Connection lost.");
+                }
+                updates.incrementAndGet();
+                return true;
+            }
+        });
+        when(releaseStatement.getResultSet()).thenReturn(rs);
+
+        PreparedStatement renewStatement = mockStatement(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                renewals.incrementAndGet();
+                return canRenew ? 1 : 0;
+            }
+        });
+
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(eq(UPDATE_QUERY))).thenReturn(updateStatement);
+        when(connection.prepareStatement(eq(RELEASE_QUERY))).thenReturn(releaseStatement);
+        when(connection.prepareStatement(eq(RENEW_QUERY))).thenReturn(renewStatement);
+
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        return new ExpirableDatabaseLock(dataSource, LOCK_ID) {
+
+            @Override
+            protected String getUpdateQuery() {
+                return UPDATE_QUERY;
+            }
+
+            @Override
+            protected String getInsertQuery() {
+                return INSERT_QUERY;
+            }
+
+            @Override
+            protected String getReleaseQuery() {
+                return RELEASE_QUERY;
+            }
+
+            @Override
+            protected String getRenewQuery() {
+                return RENEW_QUERY;
+            }
+        };
+    }
+
+    @Test
+    public void testRenewal() throws Exception {
+        ExpirableDatabaseLock lock = createLock();
+        lock.setExpirationTimeout(300);
+        lock.setRenewalExecutor(executor);
+        assertEquals(100, lock.getRenewalInterval());
+
+        assertTrue(lock.tryLock());
+        sleep(350);
+        int count = renewals.get();
+        assertTrue("Expected lease renewals, got " + count, count >= 2);
+        
+        lock.unlock();
+        sleep(250);
+        assertEquals(count, renewals.get());
+    }
+
+    @Test
+    public void testLeaseLost() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ExpirableDatabaseLock lock = createLock();
+        lock.setRenewalInterval(20);
+        lock.setRenewalExecutor(executor);
+        lock.addLeaseListener(new LeaseListener() {
+            @Override
+            public void leaseLost(ExpirableDatabaseLock lock, Throwable cause) {
+                assertNull(cause);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(lock.tryLock());
+        canRenew = false;
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        
+        // Renewal stops after lease was lost.
+        int count = renewals.get();
+        sleep(100);
+        assertEquals(count, renewals.get());
+    }
+
+    @Test
+    public void testFailedRelease() throws Exception {
+        ExpirableDatabaseLock lock = createLock();
+        lock.setRenewalInterval(20);
+        lock.setRenewalExecutor(executor);
+
+        assertTrue(lock.tryLock());
+        canRelease = false;
+        try {
+            lock.unlock();
+            fail("Expected release failure.");
+        } catch (LockException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        // Consumer does not prolong the lease it has stopped holding.
+        int count = renewals.get();
+        sleep(100);
+        assertEquals(count, renewals.get());
+        assertEquals(0, lock.getHoldCount());
+    }
+
+    @Test
+    public void testFencingToken() throws Exception {
+        ExpirableDatabaseLock lock = createLock();
+        assertEquals(0, lock.getFencingToken());
+        assertTrue(lock.tryLock());
+        assertEquals(TOKEN, lock.getFencingToken());
+    }
+
+    @Test
+    public void testLocalReentry() throws Exception {
+        ExpirableDatabaseLock lock = createLock();
+        lock.setExpirationTimeout(300);
+        lock.setSafetyMargin(100);
+        // Renewal keeps the lease, but does not happen during the test.
+        lock.setRenewalInterval(60000);
+        lock.setRenewalExecutor(executor);
+
+        assertTrue(lock.tryLock());
+        assertTrue(lock.tryLock());
+        assertTrue(lock.tryLock());
+        assertEquals(3, lock.getHoldCount());
+        // Only the first acquisition hits the database while lease is fresh.
+        assertEquals(1, updates.get());
+
+        // Safe window of 200 msec has passed.
+        sleep(250);
+        assertTrue(lock.tryLock());
+        assertEquals(2, updates.get());
+
+        // Lock is released in the database with the last hold only.
+        lock.unlock();
+        lock.unlock();
+        lock.unlock();
+        assertEquals(2, updates.get());
+        lock.unlock();
+        assertEquals(3, updates.get());
+        assertEquals(0, lock.getHoldCount());
+    }
+
+    @Test
+    public void testReentryWithoutRenewal() throws Exception {
+        ExpirableDatabaseLock lock = createLock();
+        lock.setExpirationTimeout(300);
+
+        // Polling consumer prolongs the lease by obtaining the lock.
+        assertTrue(lock.tryLock());
+        assertTrue(lock.tryLock());
+        assertTrue(lock.tryLock());
+        assertEquals(3, updates.get());
+        assertEquals(3, lock.getHoldCount());
+    }
+}
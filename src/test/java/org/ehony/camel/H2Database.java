@@ -0,0 +1,85 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.rules.ExternalResource;
+
+import java.sql.*;
+import java.util.Scanner;
+
+/**
+ * Embedded H2 database which <code>locks</code> table is created from
+ * <code>schema-h2.sql</code> before every test.
+ * <p>Database outlives connections, so tests may also connect via {@link #getUrl() URL}.</p>
+ */
+public class H2Database extends ExternalResource
+{
+
+    private static final String SCHEMA = "/schema-h2.sql";
+
+    private final String url;
+    private BasicDataSource dataSource;
+
+    /**
+     * @param name name of the in-memory database, unique per test class.
+     */
+    public H2Database(String name) {
+        this.url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl(url);
+        dataSource.setUsername("sa");
+        execute("drop table if exists locks");
+        run(SCHEMA);
+    }
+
+    @Override
+    protected void after() {
+        try {
+            dataSource.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot close data source of " + url, e);
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public BasicDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Execute statements of the script found on the classpath, e.g. schema upgrade.
+     */
+    public void run(String resource) throws SQLException {
+        execute(new Scanner(getClass().getResourceAsStream(resource), "UTF-8").useDelimiter("\\A").next());
+    }
+
+    /**
+     * Execute statements on a separate connection.
+     */
+    public void execute(String sql) throws SQLException {
+        Connection c = dataSource.getConnection();
+        try {
+            Statement stmt = c.createStatement();
+            try {
+                stmt.execute(sql);
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
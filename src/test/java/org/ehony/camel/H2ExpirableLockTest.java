@@ -0,0 +1,124 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+
+import javax.sql.DataSource;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+public class H2ExpirableLockTest
+{
+
+    private static final String LOCK_ID = "testLock";
+
+    @Rule
+    public final H2Database database = new H2Database("locks");
+
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = database.getDataSource();
+    }
+
+    private ExpirableDatabaseLock createLock(boolean atomic) {
+        ExpirableDatabaseLock lock;
+        if (atomic) {
+            lock = new H2ExpirableLock(dataSource, LOCK_ID);
+        } else {
+            // Obtain lock with sequential update and insert.
+            lock = new H2ExpirableLock(dataSource, LOCK_ID) {
+                @Override
+                protected String getAcquireQuery() {
+                    return null;
+                }
+            };
+        }
+        lock.setRetryCount(0);
+        return lock;
+    }
+
+    private void testExclusion(boolean atomic) throws Exception {
+        ExpirableDatabaseLock a = createLock(atomic), b = createLock(atomic);
+        a.setExpirationTimeout(200);
+        b.setExpirationTimeout(200);
+
+        assertTrue(a.tryLock());
+        assertEquals(1, a.getFencingToken());
+        assertFalse(b.tryLock());
+        assertTrue(a.renew());
+
+        // Lease expires without renewal.
+        sleep(300);
+        assertFalse(a.renew());
+        assertTrue(b.tryLock());
+        assertEquals(2, b.getFencingToken());
+        assertFalse(a.tryLock());
+
+        b.unlock();
+        assertTrue(a.tryLock());
+        assertEquals(3, a.getFencingToken());
+        a.unlock();
+    }
+
+    @Test
+    public void testAtomicExclusion() throws Exception {
+        testExclusion(true);
+    }
+
+    @Test
+    public void testSequentialExclusion() throws Exception {
+        testExclusion(false);
+    }
+
+    @Test
+    public void testExclusiveLock() throws Exception {
+        ExpirableDatabaseLock a = createLock(true), b = createLock(true);
+        a.setExpirationTimeout(-1);
+        assertTrue(a.tryLock());
+        sleep(50);
+        assertFalse(b.tryLock());
+        a.unlock();
+        assertTrue(b.tryLock());
+    }
+
+    @Test
+    public void testUpgradedSchema() throws Exception {
+        // Table of the schema which predates fencing tokens.
+        database.execute("drop table locks");
+        database.execute("create table locks (lock_id varchar(255) not null primary key,"
+                + " consumer_id varchar(255) not null, expires timestamp not null, exclusive boolean default false not null)");
+        database.execute("insert into locks values ('" + LOCK_ID + "', 'other', localtimestamp, false)");
+        database.run("/schema-h2-upgrade.sql");
+
+        ExpirableDatabaseLock lock = createLock(true);
+        assertTrue(lock.tryLock());
+        assertEquals(1, lock.getFencingToken());
+        lock.unlock();
+    }
+
+    @Test
+    public void testReportedLease() throws Exception {
+        // Database grants half of the requested lease.
+        ExpirableDatabaseLock lock = new H2ExpirableLock(dataSource, LOCK_ID) {
+            @Override
+            protected String getAcquireQuery() {
+                return MERGE_QUERY.replace("dateadd(millisecond, ?,", "dateadd(millisecond, ? / 2,");
+            }
+        };
+        lock.setExpirationTimeout(2000);
+        lock.setSafetyMargin(100);
+        assertTrue(lock.tryLock());
+        long remaining = lock.getRemainingLease();
+        assertTrue("Remaining lease " + remaining, remaining > 0 && remaining <= 900);
+        lock.unlock();
+        assertEquals(0, lock.getRemainingLease());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+
+import javax.sql.DataSource;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+public class H2LockReaperTest
+{
+
+    @Rule
+    public final H2Database database = new H2Database("reaper");
+
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = database.getDataSource();
+    }
+
+    private ExpirableDatabaseLock createLock(String lockId, long timeout) {
+        ExpirableDatabaseLock lock = new H2ExpirableLock(dataSource, lockId);
+        lock.setExpirationTimeout(timeout);
+        lock.setRetryCount(0);
+        return lock;
+    }
+
+    @Test
+    public void testReap() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ExpirableDatabaseLock lock = createLock("released #" + i, 60000);
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        }
+        assertTrue(createLock("expired", 50).tryLock());
+        assertTrue(createLock("held", 60000).tryLock());
+        assertTrue(createLock("exclusive", -1).tryLock());
+
+        H2LockReaper reaper = new H2LockReaper(dataSource);
+        reaper.setBatchSize(2);
+        assertEquals(0, reaper.reap());
+
+        sleep(200);
+        reaper.setRetention(100);
+        // Released and expired records are deleted in batches, live and exclusive ones are kept.
+        assertEquals(6, reaper.reap());
+        assertEquals(0, reaper.reap());
+        assertFalse(createLock("held", 60000).tryLock());
+        assertFalse(createLock("exclusive", 60000).tryLock());
+
+        // Reaped lock is obtained anew.
+        ExpirableDatabaseLock lock = createLock("released #0", 60000);
+        assertTrue(lock.tryLock());
+        assertEquals(1, lock.getFencingToken());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static java.lang.Thread.sleep;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class H2MembershipTest
+{
+
+    @Rule
+    public final H2Database database = new H2Database("membership");
+
+    private DatabaseMembership createMembership(String groupId, String memberId) {
+        DatabaseMembership membership = new H2Membership(database.getDataSource(), groupId, memberId);
+        membership.setExpirationTimeout(200);
+        return membership;
+    }
+
+    private static Set<String> members(String... memberIds) {
+        return new TreeSet<String>(asList(memberIds));
+    }
+
+    @Test
+    public void testMembership() throws Exception {
+        DatabaseMembership a = createMembership("cluster", "a"), b = createMembership("cluster", "b");
+        assertTrue(a.getMembers().isEmpty());
+
+        assertTrue(a.heartbeat());
+        assertTrue(b.heartbeat());
+        assertEquals(members("a", "b"), a.getMembers());
+        assertEquals(members("a", "b"), b.getMembers());
+
+        // Another incarnation of a live member is rejected.
+        assertFalse(createMembership("cluster", "a").heartbeat());
+
+        b.leave();
+        assertEquals(members("a"), a.getMembers());
+
+        // Member which stops heartbeating disappears once its lease expires.
+        sleep(300);
+        assertTrue(a.getMembers().isEmpty());
+        assertTrue(a.heartbeat());
+        assertEquals(members("a"), a.getMembers());
+        a.leave();
+    }
+
+    @Test
+    public void testWildcardGroup() throws Exception {
+        DatabaseMembership a = createMembership("a_b", "a"), b = createMembership("axb", "b"),
+                           c = createMembership("a%", "c"), d = createMembership("a\\", "d");
+        for (DatabaseMembership membership : asList(a, b, c, d)) {
+            assertTrue(membership.heartbeat());
+        }
+        // Wildcards in group identifiers match only themselves.
+        assertEquals(members("a"), a.getMembers());
+        assertEquals(members("b"), b.getMembers());
+        assertEquals(members("c"), c.getMembers());
+        assertEquals(members("d"), d.getMembers());
+    }
+
+    @Test
+    public void testPrefixPattern() {
+        assertEquals("a\\_b@%", DatabaseMembership.getPrefixPattern("a_b@", H2Membership.WILDCARDS));
+        assertEquals("\\[a\\%\\\\@%", DatabaseMembership.getPrefixPattern("[a%\\@", TransactSqlMembership.WILDCARDS));
+    }
+}
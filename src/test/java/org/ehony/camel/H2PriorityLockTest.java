@@ -0,0 +1,119 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+public class H2PriorityLockTest
+{
+
+    private static final String LOCK_ID = "testPriorityLock";
+
+    @Rule
+    public final H2Database database = new H2Database("priority");
+
+    @Before
+    public void setUp() throws Exception {
+        database.run("/schema-h2-priority.sql");
+    }
+
+    private H2PriorityLock createLock(int priority, long takeoverDelay) {
+        H2PriorityLock lock = new H2PriorityLock(database.getDataSource(), LOCK_ID);
+        lock.setPriority(priority);
+        lock.setTakeoverDelay(takeoverDelay);
+        lock.setExpirationTimeout(500);
+        lock.setRetryCount(0);
+        return lock;
+    }
+
+    @Test
+    public void testDeferredTakeover() throws Exception {
+        H2PriorityLock holder = createLock(0, 0),
+                       preferred = createLock(1, 0),
+                       deferred = createLock(0, 1000);
+        assertTrue(holder.tryLock());
+        sleep(600);
+        // Lease has expired, but not long enough for the less preferred consumer.
+        assertFalse(deferred.tryLock());
+        assertTrue(preferred.tryLock());
+        preferred.unlock();
+        sleep(1100);
+        assertTrue(deferred.tryLock());
+        deferred.unlock();
+    }
+
+    @Test
+    public void testPreemption() throws Exception {
+        H2PriorityLock holder = createLock(0, 0),
+                       preferred = createLock(1, 0),
+                       lower = createLock(-1, 0);
+        preferred.setPreemptive(true);
+        lower.setPreemptive(true);
+        assertTrue(holder.tryLock());
+
+        // Holders of lower priority do not preempt.
+        assertFalse(lower.tryLock());
+        assertTrue(holder.renew());
+
+        // Preferred consumer cannot take live lease, but preempts its holder.
+        assertFalse(preferred.tryLock());
+        assertFalse(holder.renew());
+        assertFalse(holder.tryLock());
+    }
+
+    /**
+     * Start route guarded by the lock which lease is renewed much more often than it expires.
+     */
+    private CamelContext start(H2PriorityLock lock, long delay) throws Exception {
+        lock.setExpirationTimeout(5000);
+        lock.setRenewalInterval(100);
+        lock.setRenewalExecutor(LockScheduler.getDefault());
+        final SerialAccessRoutePolicy policy = new SerialAccessRoutePolicy(lock);
+        policy.setLockObtainDelay(delay);
+        CamelContext context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:in").routeId("priority").routePolicy(policy).to("mock:out");
+            }
+        });
+        context.start();
+        return context;
+    }
+
+    private static void await(CamelContext context, ServiceStatus status, long timeout) throws InterruptedException {
+        for (long i = 0; i < timeout / 10 && context.getRouteStatus("priority") != status; i++) {
+            sleep(10);
+        }
+        assertEquals(status, context.getRouteStatus("priority"));
+    }
+
+    @Test
+    public void testPreemptiveTakeover() throws Exception {
+        H2PriorityLock preferred = createLock(1, 0);
+        preferred.setPreemptive(true);
+        CamelContext holder = start(createLock(0, 0), 1000), successor = null;
+        try {
+            await(holder, ServiceStatus.Started, 1000);
+            successor = start(preferred, 50);
+            // Preempted holder releases the lock once it notices preemption, long before its lease expires.
+            await(successor, ServiceStatus.Started, 1000);
+            assertEquals(ServiceStatus.Stopped, holder.getRouteStatus("priority"));
+        } finally {
+            holder.stop();
+            if (successor != null) {
+                successor.stop();
+            }
+        }
+    }
+}
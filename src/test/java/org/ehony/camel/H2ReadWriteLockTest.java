@@ -0,0 +1,211 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.*;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the read/write lock protocol of {@link TransactSqlReadWriteLock} on H2.
+ */
+public class H2ReadWriteLockTest
+{
+
+    private static final String LOCK_ID = "testReadWriteLock";
+
+    @Rule
+    public final H2Database database = new H2Database("readWriteLocks");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        database.execute("drop table if exists lock_shares");
+        database.execute("create table lock_shares (lock_id varchar(255) not null, consumer_id varchar(255) not null,"
+                + " expires timestamp not null, primary key (lock_id, consumer_id))");
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queries of {@link TransactSqlReadWriteLock} translated to H2.
+     * <p>H2 has no row lock hints, so reader may pass the check concurrently
+     * with the claim of the writer. Queries suit sequential tests only.</p>
+     */
+    private static class H2ReadWriteLock extends DatabaseReadWriteLock
+    {
+
+        static final String SHARE_QUERY =
+                "merge into lock_shares s"
+                        + " using (select cast(? as varchar(255)) as lock_id, cast(? as varchar(255)) as consumer_id,"
+                        + " dateadd(millisecond, ?, localtimestamp) as expires"
+                        + " where not exists (select * from locks"
+                        + " where lock_id = ? and consumer_id <> ? and expires > localtimestamp)) v"
+                        + " on s.lock_id = v.lock_id and s.consumer_id = v.consumer_id"
+                        + " when matched then update set expires = v.expires"
+                        + " when not matched then insert (lock_id, consumer_id, expires) values (v.lock_id, v.consumer_id, v.expires)";
+
+        static final String RENEW_SHARE_QUERY =
+                "update lock_shares"
+                        + " set expires = dateadd(millisecond, ?, localtimestamp)"
+                        + " where lock_id = ? and consumer_id = ? and expires > localtimestamp";
+
+        static final String RELEASE_SHARE_QUERY =
+                "delete from lock_shares where lock_id = ? and consumer_id = ?";
+
+        static final String CLAIM_QUERY =
+                H2ExpirableLock.MERGE_QUERY
+                        + " where not exists (select * from lock_shares where lock_id = ? and expires > localtimestamp)";
+
+        H2ReadWriteLock(DataSource dataSource, String lockId) {
+            super(dataSource, lockId);
+        }
+
+        @Override
+        protected ExpirableDatabaseLock createReadLock(DataSource dataSource, String lockId) {
+            return new ExpirableDatabaseLock(dataSource, lockId) {
+                @Override
+                protected String getUpdateQuery() {
+                    return SHARE_QUERY;
+                }
+
+                @Override
+                protected String getInsertQuery() {
+                    return SHARE_QUERY;
+                }
+
+                @Override
+                protected String getAcquireQuery() {
+                    return SHARE_QUERY;
+                }
+
+                @Override
+                protected String getReleaseQuery() {
+                    return RELEASE_SHARE_QUERY;
+                }
+
+                @Override
+                protected String getRenewQuery() {
+                    return RENEW_SHARE_QUERY;
+                }
+
+                @Override
+                protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+                    switch (query) {
+                        case ACQUIRE:
+                        case UPDATE:
+                        case INSERT:
+                            stmt.setString(1, getLockId());
+                            stmt.setString(2, getConsumerId());
+                            stmt.setLong(3, getExpirationTimeout());
+                            stmt.setString(4, getLockId());
+                            stmt.setString(5, getConsumerId());
+                            break;
+                        case RELEASE:
+                            stmt.setString(1, getLockId());
+                            stmt.setString(2, getConsumerId());
+                            break;
+                        case RENEW:
+                            stmt.setLong(1, getExpirationTimeout());
+                            stmt.setString(2, getLockId());
+                            stmt.setString(3, getConsumerId());
+                            break;
+                    }
+                }
+            };
+        }
+
+        @Override
+        protected ExpirableDatabaseLock createWriteLock(DataSource dataSource, String lockId) {
+            return new H2ExpirableLock(dataSource, lockId) {
+                @Override
+                protected String getAcquireQuery() {
+                    return CLAIM_QUERY;
+                }
+
+                @Override
+                protected void setParameters(Query query, PreparedStatement stmt) throws SQLException {
+                    super.setParameters(query, stmt);
+                    if (query == Query.ACQUIRE) {
+                        stmt.setString(5, getLockId());
+                    }
+                }
+
+                @Override
+                protected void onAcquireFailed() throws SQLException {
+                    update(Query.RELEASE);
+                }
+            };
+        }
+    }
+
+    private DatabaseReadWriteLock createLock() {
+        DatabaseReadWriteLock lock = new H2ReadWriteLock(database.getDataSource(), LOCK_ID);
+        lock.readLock().setRetryCount(0);
+        lock.writeLock().setRetryCount(0);
+        lock.writeLock().setRetryDelay(20);
+        return lock;
+    }
+
+    @Test
+    public void testSharedReaders() {
+        DatabaseReadWriteLock a = createLock(), b = createLock();
+        assertTrue(a.readLock().tryLock());
+        assertTrue(b.readLock().tryLock());
+        assertFalse(createLock().writeLock().tryLock());
+        a.readLock().unlock();
+        b.readLock().unlock();
+    }
+
+    @Test
+    public void testWriterPreference() throws Exception {
+        DatabaseReadWriteLock reader = createLock();
+        final DatabaseReadWriteLock writer = createLock();
+        assertTrue(reader.readLock().tryLock());
+        // Writer claims the lock while reader holds it.
+        Future<Boolean> obtained = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return writer.writeLock().tryLock(5, TimeUnit.SECONDS);
+            }
+        });
+        sleep(100);
+        // New readers are not admitted while writer waits.
+        assertFalse(createLock().readLock().tryLock());
+
+        reader.readLock().unlock();
+        assertTrue(obtained.get(5, TimeUnit.SECONDS));
+        assertFalse(reader.readLock().tryLock());
+        writer.writeLock().unlock();
+        assertTrue(reader.readLock().tryLock());
+        reader.readLock().unlock();
+    }
+
+    @Test
+    public void testWithdrawnClaim() {
+        DatabaseReadWriteLock reader = createLock(), writer = createLock();
+        assertTrue(reader.readLock().tryLock());
+        assertFalse(writer.writeLock().tryLock());
+        // Writer which gave up does not lock out readers.
+        DatabaseReadWriteLock another = createLock();
+        assertTrue(another.readLock().tryLock());
+        another.readLock().unlock();
+        reader.readLock().unlock();
+        assertTrue(writer.writeLock().tryLock());
+        writer.writeLock().unlock();
+    }
+}
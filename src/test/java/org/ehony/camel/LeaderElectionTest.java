@@ -0,0 +1,151 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.lang.Thread.sleep;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class LeaderElectionTest
+{
+
+    private static final String GROUP_ID = "cluster";
+
+    @Rule
+    public final H2Database database = new H2Database("election");
+
+    private DataSource dataSource;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = database.getDataSource();
+        scheduler = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+    }
+
+    private LeaderElection createElection(String memberId, ScheduledExecutorService scheduler) {
+        return createElection(GROUP_ID, memberId, scheduler);
+    }
+
+    private LeaderElection createElection(String groupId, String memberId, ScheduledExecutorService scheduler) {
+        DatabaseMembership membership = new H2Membership(dataSource, groupId, memberId);
+        membership.setExpirationTimeout(500);
+        LeaderElection election = new H2LeaderElection(dataSource, membership, scheduler);
+        election.setExpirationTimeout(500);
+        election.setRefreshDelay(50);
+        return election;
+    }
+
+    private static void await(LeaderElection election, String leaderId, long epoch, String... members) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            if (leaderId.equals(election.getLeaderId()) && election.getEpoch() == epoch
+                    && election.getMembers().equals(new TreeSet<String>(asList(members)))) {
+                return;
+            }
+            sleep(20);
+        }
+        fail("Leader " + election.getLeaderId() + " of epoch " + election.getEpoch() + " among " + election.getMembers());
+    }
+
+    @Test
+    public void testElection() throws Exception {
+        LeaderElection a = createElection("a", scheduler), b = createElection("b", scheduler);
+        final BlockingQueue<String> elected = new LinkedBlockingQueue<String>();
+        b.addLeaderListener(new LeaderListener() {
+            @Override
+            public void leaderChanged(LeaderElection election, String leaderId, long epoch) {
+                elected.add(leaderId + "#" + epoch);
+            }
+
+            @Override
+            public void membersChanged(LeaderElection election, SortedSet<String> members) {
+            }
+        });
+
+        a.start();
+        await(a, "a", 1, "a");
+        assertTrue(a.isLeader());
+        assertTrue(a.getView().getElectedAt() > 0);
+
+        b.start();
+        await(b, "a", 1, "a", "b");
+        assertFalse(b.isLeader());
+        assertEquals("a#1", elected.poll(1, TimeUnit.SECONDS));
+
+        // Resigned leader is replaced on the next refresh.
+        a.stop();
+        assertFalse(a.isLeader());
+        assertNull(a.getLeaderId());
+        await(b, "b", 2, "b");
+        assertTrue(b.isLeader());
+        assertEquals("b#2", elected.poll(1, TimeUnit.SECONDS));
+        b.stop();
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        ScheduledExecutorService crashing = Executors.newSingleThreadScheduledExecutor();
+        LeaderElection a = createElection("a", crashing), b = createElection("b", scheduler);
+        a.start();
+        await(a, "a", 1, "a");
+        b.start();
+        await(b, "a", 1, "a", "b");
+
+        // Leader stops refreshing without resigning, so its leases expire.
+        crashing.shutdownNow();
+        await(b, "b", 2, "b");
+        assertTrue(b.isLeader());
+        b.stop();
+    }
+
+    @Test
+    public void testRestartedMember() throws Exception {
+        ScheduledExecutorService crashing = Executors.newSingleThreadScheduledExecutor();
+        LeaderElection zombie = createElection("a", crashing);
+        zombie.start();
+        await(zombie, "a", 1, "a");
+        crashing.shutdownNow();
+
+        // Restarted member waits for the lease of its predecessor and is elected with a new token.
+        LeaderElection a = createElection("a", scheduler);
+        assertFalse(zombie.getLock().getConsumerId().equals(a.getLock().getConsumerId()));
+        a.start();
+        await(a, "a", 2, "a");
+        assertTrue(a.isLeader());
+
+        // Predecessor which resigns late does not release lease of the restarted member.
+        zombie.stop();
+        sleep(200);
+        await(a, "a", 2, "a");
+        assertTrue(a.isLeader());
+        assertEquals(2, a.getLock().getFencingToken());
+        a.stop();
+    }
+
+    @Test
+    public void testWildcardGroup() throws Exception {
+        // Underscore of the group identifier must not match any character.
+        LeaderElection a = createElection("a_b", "a", scheduler), b = createElection("axb", "b", scheduler);
+        a.start();
+        b.start();
+        await(a, "a", 1, "a");
+        await(b, "b", 1, "b");
+        a.stop();
+        b.stop();
+    }
+}
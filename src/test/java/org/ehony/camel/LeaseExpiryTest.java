@@ -0,0 +1,161 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.*;
+
+public class LeaseExpiryTest
+{
+
+    private static final String ROUTE_ID = "serial";
+
+    @Rule
+    public final H2Database database = new H2Database("expiry");
+
+    private CamelContext context;
+    private SerialAccessRoutePolicy policy;
+    private H2ExpirableLock lock;
+
+    @Before
+    public void setUp() throws Exception {
+        lock = new H2ExpirableLock(database.getDataSource(), "testLock");
+        lock.setRetryCount(0);
+        lock.setExpirationTimeout(1000);
+        lock.setSafetyMargin(200);
+    }
+
+    private void start(long delay) throws Exception {
+        policy = new SerialAccessRoutePolicy(lock);
+        policy.setLockObtainDelay(delay);
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("seda:in").routeId(ROUTE_ID).routePolicy(policy).to("mock:out");
+            }
+        });
+        context.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        policy.shutdown();
+        context.stop();
+    }
+
+    private void await(ServiceStatus status) throws InterruptedException {
+        for (int i = 0; i < 200 && context.getRouteStatus(ROUTE_ID) != status; i++) {
+            sleep(10);
+        }
+        assertEquals(status, context.getRouteStatus(ROUTE_ID));
+    }
+
+    @Test
+    public void testStopBeforeExpiration() throws Exception {
+        // Lease is never renewed, since checks are too rare.
+        lock.setExpirationTimeout(3000);
+        lock.setSafetyMargin(1000);
+        start(60000);
+        await(ServiceStatus.Started);
+        long start = System.currentTimeMillis();
+        while (context.getRouteStatus(ROUTE_ID) != ServiceStatus.Stopped && System.currentTimeMillis() - start < 5000) {
+            sleep(10);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        // Routes are stopped at expiration timeout minus safety margin.
+        assertEquals(ServiceStatus.Stopped, context.getRouteStatus(ROUTE_ID));
+        assertTrue("Stopped after " + elapsed, elapsed < 2500);
+        assertEquals(0, lock.getRemainingLease());
+        // Lock is released after routes are stopped.
+        for (int i = 0; i < 100 && lock.getHoldCount() > 0; i++) {
+            sleep(10);
+        }
+        assertEquals(0, lock.getHoldCount());
+    }
+
+    @Test
+    public void testRenewedLeaseKeepsRoutes() throws Exception {
+        lock.setRenewalExecutor(LockScheduler.getDefault());
+        lock.setRenewalInterval(200);
+        start(60000);
+        await(ServiceStatus.Started);
+        sleep(1500);
+        assertEquals(ServiceStatus.Started, context.getRouteStatus(ROUTE_ID));
+        assertTrue(lock.getRemainingLease() > 0);
+    }
+
+    @Test
+    public void testChecksRenewLease() throws Exception {
+        start(300);
+        await(ServiceStatus.Started);
+        sleep(1500);
+        assertEquals(ServiceStatus.Started, context.getRouteStatus(ROUTE_ID));
+        assertEquals(1, lock.getHoldCount());
+    }
+
+    @Test
+    public void testContendersDoNotDelayRenewal() throws Exception {
+        final AtomicLong lag = new AtomicLong();
+        lock.setMetrics(new NoopLockMetrics() {
+            @Override
+            public void renewed(String lockId, long lagNanos) {
+                if (lagNanos > lag.get()) {
+                    lag.set(lagNanos);
+                }
+            }
+        });
+        lock.setRenewalExecutor(LockScheduler.getDefault());
+        lock.setRenewalInterval(200);
+        start(60000);
+        await(ServiceStatus.Started);
+
+        // Contenders keep default retries, which would pause threads of the shared scheduler.
+        List<SerialAccessRoutePolicy> policies = new ArrayList<SerialAccessRoutePolicy>();
+        List<CamelContext> contexts = new ArrayList<CamelContext>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                H2ExpirableLock contended = new H2ExpirableLock(database.getDataSource(), "testLock");
+                contended.setExpirationTimeout(1000);
+                final SerialAccessRoutePolicy contender = new SerialAccessRoutePolicy(contended);
+                contender.setLockObtainDelay(50);
+                policies.add(contender);
+                CamelContext context = new DefaultCamelContext();
+                context.addRoutes(new RouteBuilder() {
+                    @Override
+                    public void configure() throws Exception {
+                        from("seda:in").routeId(ROUTE_ID).routePolicy(contender).to("mock:out");
+                    }
+                });
+                contexts.add(context);
+                context.start();
+            }
+            sleep(2000);
+            assertEquals(ServiceStatus.Started, context.getRouteStatus(ROUTE_ID));
+            assertTrue("Renewal lag " + NANOSECONDS.toMillis(lag.get()), NANOSECONDS.toMillis(lag.get()) < 200);
+            for (CamelContext context : contexts) {
+                assertEquals(ServiceStatus.Stopped, context.getRouteStatus(ROUTE_ID));
+            }
+        } finally {
+            for (SerialAccessRoutePolicy contender : policies) {
+                contender.shutdown();
+            }
+            for (CamelContext context : contexts) {
+                context.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class LockConnectionPoolTest
+{
+
+    private static final String LOCK_ID = "testLock";
+
+    @Rule
+    public final H2Database database = new H2Database("pooledLocks");
+
+    private DataSource target;
+    private LockConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        target = mock(DataSource.class);
+        when(target.getConnection()).thenAnswer(new Answer<Connection>() {
+            @Override
+            public Connection answer(InvocationOnMock invocation) throws Throwable {
+                return DriverManager.getConnection(database.getUrl(), "sa", "");
+            }
+        });
+        pool = new LockConnectionPool(target);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testDedicatedConnection() throws Exception {
+        ExpirableDatabaseLock a = new H2ExpirableLock(pool, LOCK_ID),
+                              b = new H2ExpirableLock(pool, LOCK_ID);
+        b.setRetryCount(0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(a.tryLock());
+            assertFalse(b.tryLock());
+            a.unlock();
+        }
+        // All lock operations share a single physical connection.
+        verify(target, times(1)).getConnection();
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        PreparedStatement first, second;
+        Connection c = pool.getConnection();
+        try {
+            PreparedStatement stmt = c.prepareStatement(H2ExpirableLock.MERGE_QUERY);
+            first = stmt.unwrap(PreparedStatement.class);
+            assertSame(c, stmt.getConnection());
+            stmt.close();
+        } finally {
+            c.close();
+        }
+        c = pool.getConnection();
+        try {
+            PreparedStatement stmt = c.prepareStatement(H2ExpirableLock.MERGE_QUERY);
+            second = stmt.unwrap(PreparedStatement.class);
+            stmt.close();
+        } finally {
+            c.close();
+        }
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        pool.setValidationInterval(0);
+        ExpirableDatabaseLock lock = new H2ExpirableLock(pool, LOCK_ID);
+        assertTrue(lock.tryLock());
+
+        // Physical connection is lost while idle.
+        Connection c = pool.getConnection();
+        Connection physical = c.unwrap(Connection.class);
+        c.close();
+        physical.close();
+
+        assertTrue(lock.renew());
+        verify(target, times(2)).getConnection();
+        lock.unlock();
+    }
+
+    /**
+     * Fail a statement on connection which reports itself invalid once validated,
+     * then check the connection out again.
+     *
+     * @return Data source the pool opened connections from.
+     */
+    private DataSource checkoutAfter(SQLException failure) throws Exception {
+        DataSource target = mock(DataSource.class);
+        Connection physical = mock(Connection.class);
+        when(target.getConnection()).thenReturn(physical);
+        when(physical.getAutoCommit()).thenReturn(true);
+        when(physical.createStatement()).thenThrow(failure);
+        LockConnectionPool pool = new LockConnectionPool(target);
+        try {
+            Connection c = pool.getConnection();
+            try {
+                c.createStatement();
+                fail("Statement failure expected.");
+            } catch (SQLException expected) {
+                assertSame(failure, expected);
+            } finally {
+                c.close();
+            }
+            pool.getConnection().close();
+        } finally {
+            pool.close();
+        }
+        return target;
+    }
+
+    @Test
+    public void testStatementFailure() throws Exception {
+        // Syntax error does not break connection, so it is not validated.
+        DataSource target = checkoutAfter(new SQLException("Syntax error", "42000"));
+        verify(target, times(1)).getConnection();
+    }
+
+    @Test
+    public void testConnectionFailure() throws Exception {
+        DataSource target = checkoutAfter(new SQLException("Communication link failure", "08S01"));
+        verify(target, times(2)).getConnection();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testCheckoutTimeout() throws Exception {
+        pool.setCheckoutTimeout(50);
+        Connection c = pool.getConnection();
+        try {
+            pool.getConnection();
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+
+import javax.management.*;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+public class ManagedLockMetricsTest
+{
+
+    private static final String LOCK_ID = "myLock";
+
+    private DefaultCamelContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new DefaultCamelContext();
+        context.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.stop();
+    }
+
+    @Test
+    public void testStatistics() {
+        ManagedLockMetrics metrics = new ManagedLockMetrics(context);
+        metrics.acquired(LOCK_ID, 1, MILLISECONDS.toNanos(2));
+        metrics.acquired(LOCK_ID, 3, MILLISECONDS.toNanos(100));
+        metrics.acquireFailed(LOCK_ID, 4, MILLISECONDS.toNanos(10));
+        metrics.insertAttempted(LOCK_ID);
+        metrics.leadershipChanged(LOCK_ID, true);
+
+        ManagedLockStatistics stats = metrics.getStatistics(LOCK_ID);
+        assertEquals(2, stats.getAcquireCount());
+        assertEquals(1, stats.getAcquireFailedCount());
+        assertEquals(1, stats.getInsertCount());
+        assertEquals(2.0, stats.getAttemptsPerAcquire(), 0);
+        assertEquals(51.0, stats.getAcquireMeanTime(), 0);
+        assertEquals(100.0, stats.getAcquireMaxTime(), 0);
+        // Percentiles are upper bounds of power-of-two buckets.
+        assertTrue(stats.getAcquire50thPercentileTime() >= 2 && stats.getAcquire50thPercentileTime() < 4.2);
+        assertTrue(stats.getAcquire99thPercentileTime() >= 100);
+        assertTrue(stats.isLeading());
+
+        stats.reset();
+        assertEquals(0, stats.getAcquireCount());
+        assertEquals(0.0, stats.getAcquireMeanTime(), 0);
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+        ManagedLockMetrics metrics = new ManagedLockMetrics(context);
+        metrics.acquired(LOCK_ID, 1, 1000);
+
+        MBeanServer server = context.getManagementStrategy().getManagementAgent().getMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("*:type=locks,*"), null);
+        assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+        assertEquals(LOCK_ID, ObjectName.unquote(name.getKeyProperty("name")));
+        assertEquals(1L, server.getAttribute(name, "AcquireCount"));
+    }
+
+    @Test
+    public void testUnregistration() throws Exception {
+        ManagedLockMetrics metrics = new ManagedLockMetrics(context);
+        metrics.acquired(LOCK_ID, 1, 1000);
+        metrics.acquired("anotherLock", 1, 1000);
+
+        MBeanServer server = context.getManagementStrategy().getManagementAgent().getMBeanServer();
+        ObjectName query = new ObjectName("*:type=locks,*");
+        assertEquals(2, server.queryNames(query, null).size());
+        metrics.remove(LOCK_ID);
+        assertEquals(1, server.queryNames(query, null).size());
+        metrics.close();
+        assertTrue(server.queryNames(query, null).isEmpty());
+    }
+}
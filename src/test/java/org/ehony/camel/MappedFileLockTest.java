@@ -0,0 +1,105 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static java.lang.Thread.sleep;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+public class MappedFileLockTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MappedFileLock a, b;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "test.lock");
+        a = new MappedFileLock(file);
+        b = new MappedFileLock(file);
+        a.setExpirationTimeout(200);
+        b.setExpirationTimeout(200);
+        b.setRetryDelay(10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void testExclusion() throws Exception {
+        assertTrue(a.tryLock());
+        assertEquals(1, a.getFencingToken());
+        assertFalse(b.tryLock());
+        assertTrue(a.renew());
+        assertFalse(b.renew());
+
+        // Lease expires unless renewed.
+        sleep(250);
+        assertEquals(0, a.getRemainingLease());
+        assertTrue(b.tryLock());
+        assertEquals(2, b.getFencingToken());
+        assertFalse(a.tryLock());
+        assertEquals(0, a.getHoldCount());
+        assertFalse(a.renew());
+    }
+
+    @Test
+    public void testReentrantRelease() throws Exception {
+        assertTrue(a.tryLock());
+        assertTrue(a.tryLock());
+        assertEquals(1, a.getFencingToken());
+        a.unlock();
+        assertFalse(b.tryLock());
+        a.unlock();
+        assertTrue(b.tryLock(100, MILLISECONDS));
+        assertEquals(2, b.getFencingToken());
+        b.unlock();
+    }
+
+    @Test
+    public void testExclusiveLock() throws Exception {
+        a.setExpirationTimeout(-1);
+        assertTrue(a.tryLock());
+        assertEquals(-1, a.getRemainingLease());
+        sleep(250);
+        assertFalse(b.tryLock());
+        a.unlock();
+        assertTrue(b.tryLock());
+    }
+
+    @Test
+    public void testSharedRecord() throws Exception {
+        assertTrue(a.tryLock());
+        // Record survives reopening of the file.
+        MappedFileLock c = new MappedFileLock(file);
+        try {
+            assertFalse(c.tryLock());
+            a.close();
+            a = new MappedFileLock(file);
+            assertFalse(a.tryLock());
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockNotHeld() throws Exception {
+        assertTrue(a.tryLock());
+        b.unlock();
+    }
+}
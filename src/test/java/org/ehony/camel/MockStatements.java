@@ -0,0 +1,46 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.sql.*;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Mocks of JDBC statements shared by tests of locks over mocked data sources.
+ */
+final class MockStatements
+{
+
+    private MockStatements() {
+    }
+
+    /**
+     * Mock statement which executes given update and reports its update count.
+     */
+    static PreparedStatement mockStatement(final Answer<Integer> update) throws SQLException {
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        final int[] count = new int[1];
+        when(stmt.execute()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                count[0] = update.answer(invocation);
+                return false;
+            }
+        });
+        when(stmt.getUpdateCount()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                return count[0];
+            }
+        });
+        return stmt;
+    }
+}
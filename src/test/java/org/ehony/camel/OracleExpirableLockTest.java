@@ -0,0 +1,60 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.sql.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OracleExpirableLockTest
+{
+
+    private static final String LOCK_ID = "testLock";
+
+    private DataSource dataSource;
+    private Connection c;
+    private PreparedStatement merge;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = mock(DataSource.class);
+        c = mock(Connection.class);
+        merge = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(c);
+        when(c.prepareStatement(OracleExpirableLock.MERGE_QUERY)).thenReturn(merge);
+    }
+
+    private OracleExpirableLock createLock() {
+        OracleExpirableLock lock = new OracleExpirableLock(dataSource, LOCK_ID);
+        lock.setRetryCount(0);
+        return lock;
+    }
+
+    @Test
+    public void testConcurrentInsert() throws Exception {
+        when(merge.execute()).thenThrow(new SQLException("ORA-00001: unique constraint violated", "23000", 1));
+        // Another consumer inserted the record first, so it holds the lock.
+        assertFalse(createLock().tryLock());
+        verify(c).close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        when(merge.execute()).thenThrow(new SQLException("ORA-01400: cannot insert null", "23000", 1400));
+        try {
+            createLock().tryLock();
+            fail("Constraint violation ignored.");
+        } catch (LockException expected) {
+            // Only duplicate records mean contention.
+        }
+        verify(c).close();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.lang.Thread.sleep;
+import static java.util.Arrays.asList;
+import static org.ehony.camel.PartitionedRoutePolicy.getOwner;
+import static org.junit.Assert.*;
+
+public class PartitionedRoutePolicyTest
+{
+
+    private static final int PARTITION_COUNT = 3000;
+    private static final List<String> PARTITIONS = asList("p0", "p1", "p2", "p3", "p4", "p5", "p6", "p7");
+
+    @Rule
+    public final H2Database database = new H2Database("partitions");
+
+    private final List<CamelContext> contexts = new ArrayList<CamelContext>();
+    private final List<PartitionedRoutePolicy> policies = new ArrayList<PartitionedRoutePolicy>();
+    private final List<ScheduledExecutorService> schedulers = new ArrayList<ScheduledExecutorService>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (PartitionedRoutePolicy policy : policies) {
+            policy.shutdown();
+        }
+        for (CamelContext context : contexts) {
+            context.stop();
+        }
+        for (ScheduledExecutorService scheduler : schedulers) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static Map<String, String> assign(Collection<String> members) {
+        Map<String, String> owners = new HashMap<String, String>();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            owners.put("partition #" + i, getOwner(members, "partition #" + i));
+        }
+        return owners;
+    }
+
+    @Test
+    public void testFairShare() {
+        Map<String, String> owners = assign(asList("a", "b", "c"));
+        for (String member : asList("a", "b", "c")) {
+            int share = Collections.frequency(owners.values(), member);
+            assertTrue("Unfair share of " + member + ": " + share, Math.abs(share - PARTITION_COUNT / 3) < PARTITION_COUNT / 10);
+        }
+        assertNull(getOwner(Collections.<String>emptySet(), "partition"));
+    }
+
+    @Test
+    public void testRebalance() {
+        Map<String, String> before = assign(asList("a", "b", "c")),
+                            after = assign(asList("a", "c"));
+        for (String partition : before.keySet()) {
+            // Only partitions of the member which left are moved.
+            if (!before.get(partition).equals("b")) {
+                assertEquals(before.get(partition), after.get(partition));
+            }
+        }
+        Map<String, String> joined = assign(asList("a", "b", "c", "d"));
+        for (String partition : before.keySet()) {
+            // Joined member takes partitions from others, but partitions do not move between others.
+            if (!joined.get(partition).equals("d")) {
+                assertEquals(before.get(partition), joined.get(partition));
+            }
+        }
+    }
+
+    /**
+     * Start member which runs a route per partition.
+     */
+    private PartitionedRoutePolicy start(String memberId, ScheduledExecutorService scheduler) throws Exception {
+        DatabaseLockGroup group = new H2LockGroup(database.getDataSource(), PARTITIONS);
+        group.setExpirationTimeout(500);
+        DatabaseMembership membership = new H2Membership(database.getDataSource(), "cluster", memberId);
+        membership.setExpirationTimeout(500);
+        final PartitionedRoutePolicy policy = new PartitionedRoutePolicy(group, membership, scheduler);
+        policy.setRebalanceDelay(50);
+        CamelContext context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                for (String partition : PARTITIONS) {
+                    from("direct:" + partition).routeId(partition).routePolicy(policy).to("mock:out");
+                }
+            }
+        });
+        context.start();
+        policies.add(policy);
+        contexts.add(context);
+        return policy;
+    }
+
+    private ScheduledExecutorService createScheduler() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    private static Set<String> getPartitions(Collection<String> members, String memberId) {
+        Set<String> partitions = new HashSet<String>();
+        for (String partition : PARTITIONS) {
+            if (memberId.equals(getOwner(members, partition))) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Wait until member owns and runs exactly the given partitions.
+     */
+    private void await(int member, Set<String> partitions) throws Exception {
+        PartitionedRoutePolicy policy = policies.get(member);
+        CamelContext context = contexts.get(member);
+        for (int i = 0; i < 250; i++) {
+            boolean running = true;
+            for (String partition : PARTITIONS) {
+                ServiceStatus expected = partitions.contains(partition) ? ServiceStatus.Started : ServiceStatus.Stopped;
+                running &= context.getRouteStatus(partition) == expected;
+            }
+            if (running && policy.getOwnedPartitions().equals(partitions)) {
+                return;
+            }
+            sleep(20);
+        }
+        fail("Member #" + member + " owns " + policy.getOwnedPartitions() + " instead of " + partitions);
+    }
+
+    @Test
+    public void testHandover() throws Exception {
+        start("a", createScheduler());
+        await(0, new HashSet<String>(PARTITIONS));
+
+        // Joined member takes over its share of partitions.
+        start("b", createScheduler());
+        await(0, getPartitions(asList("a", "b"), "a"));
+        await(1, getPartitions(asList("a", "b"), "b"));
+
+        // Member which left stops its routes, and its partitions are taken over immediately.
+        policies.get(1).shutdown();
+        await(1, Collections.<String>emptySet());
+        await(0, new HashSet<String>(PARTITIONS));
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        start("a", createScheduler());
+        await(0, new HashSet<String>(PARTITIONS));
+
+        CamelContext context = contexts.get(0);
+        context.stop();
+        assertTrue(policies.get(0).getOwnedPartitions().isEmpty());
+
+        // Restarted context resumes rebalancing.
+        context.start();
+        await(0, new HashSet<String>(PARTITIONS));
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        start("a", createScheduler());
+        ScheduledExecutorService crashing = createScheduler();
+        start("b", crashing);
+        await(0, getPartitions(asList("a", "b"), "a"));
+        await(1, getPartitions(asList("a", "b"), "b"));
+
+        // Member stops rebalancing without leaving, so its leases expire.
+        crashing.shutdownNow();
+        await(0, new HashSet<String>(PARTITIONS));
+    }
+}
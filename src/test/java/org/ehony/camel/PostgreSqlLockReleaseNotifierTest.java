@@ -0,0 +1,143 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.*;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.concurrent.*;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PostgreSqlLockReleaseNotifierTest
+{
+
+    private static final String LOCK_ID = "testLock", CHANNEL = "releases";
+
+    private PostgreSqlLockReleaseNotifier notifier;
+
+    @After
+    public void tearDown() {
+        if (notifier != null) {
+            notifier.stop();
+        }
+    }
+
+    private static CountDownLatch listen(PostgreSqlLockReleaseNotifier notifier) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        notifier.addListener(LOCK_ID, new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        return latch;
+    }
+
+    @Test
+    public void testChannel() {
+        DataSource dataSource = mock(DataSource.class);
+        assertEquals(PostgreSqlLockReleaseNotifier.DEFAULT_CHANNEL, new PostgreSqlLockReleaseNotifier(dataSource).getChannel());
+        for (String channel : new String[] {"1st", "lock released", "locks; drop table locks", ""}) {
+            try {
+                new PostgreSqlLockReleaseNotifier(dataSource, channel);
+                fail("Channel " + channel + " accepted.");
+            } catch (IllegalArgumentException expected) {
+                // Channel is interpolated into the listen statement, so it must be an identifier.
+            }
+        }
+        try {
+            new PostgreSqlLockReleaseNotifier(new LockConnectionPool(dataSource));
+            fail("Lock connection pool accepted.");
+        } catch (IllegalArgumentException expected) {
+            // Listening connection is never returned to the pool.
+        }
+    }
+
+    @Test
+    public void testNotify() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection c = mock(Connection.class);
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(c);
+        when(c.prepareStatement(PostgreSqlLockReleaseNotifier.NOTIFY_QUERY)).thenReturn(stmt);
+        notifier = new PostgreSqlLockReleaseNotifier(dataSource, CHANNEL);
+        CountDownLatch latch = listen(notifier);
+
+        notifier.released(LOCK_ID);
+        // Local listeners do not wait for the round trip.
+        assertEquals(0, latch.getCount());
+        verify(stmt).setString(1, CHANNEL);
+        verify(stmt).setString(2, LOCK_ID);
+        verify(stmt).execute();
+        verify(c).close();
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection c = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        PGConnection pg = mock(PGConnection.class);
+        PGNotification notification = mock(PGNotification.class);
+        when(notification.getParameter()).thenReturn(LOCK_ID);
+        // The first connection cannot be established, the second one delivers a notification.
+        when(dataSource.getConnection()).thenThrow(new SQLException("Connection refused", "08001")).thenReturn(c);
+        when(c.createStatement()).thenReturn(stmt);
+        when(c.unwrap(PGConnection.class)).thenReturn(pg);
+        when(pg.getNotifications(anyInt())).thenReturn(new PGNotification[] {notification}).thenReturn(null);
+
+        notifier = new PostgreSqlLockReleaseNotifier(dataSource, CHANNEL);
+        notifier.setReconnectDelay(10);
+        CountDownLatch latch = listen(notifier);
+        notifier.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        verify(stmt).execute("listen " + CHANNEL);
+        verify(dataSource, times(2)).getConnection();
+
+        notifier.stop();
+        // Listening connection is closed once listener notices it was stopped.
+        sleep(200);
+        verify(c).close();
+    }
+
+    @Test
+    @Ignore("Requires PostgreSQL server.")
+    public void testNotification() throws Exception {
+        // Notifiers pretend to live in different JVMs.
+        PostgreSqlLockReleaseNotifier sender = createNotifier(), receiver = createNotifier();
+        try {
+            CountDownLatch latch = listen(receiver);
+            // Let receiver start listening.
+            sleep(1000);
+
+            sender.released(LOCK_ID);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            sender.stop();
+            receiver.stop();
+        }
+    }
+
+    private PostgreSqlLockReleaseNotifier createNotifier() {
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.postgresql.Driver");
+        dataSource.setUrl("jdbc:postgresql://localhost/mydb");
+        dataSource.setUsername("postgres");
+        dataSource.setPassword("password");
+
+        PostgreSqlLockReleaseNotifier notifier = new PostgreSqlLockReleaseNotifier(dataSource);
+        notifier.start();
+        return notifier;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.camel.*;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+public class RouteHandoverTest
+{
+
+    private static final String ROUTE_ID = "serial";
+    private static final long PROCESSING_TIME = 300;
+
+    private CamelContext context;
+    private SerialAccessRoutePolicy policy;
+    private final FakeLock lock = new FakeLock();
+    private volatile long completed, finished;
+
+    /**
+     * Lock with a hold count, which is available until test takes it away.
+     */
+    private static class FakeLock implements Lock {
+
+        private final AtomicInteger holds = new AtomicInteger(), attempts = new AtomicInteger();
+        private volatile boolean available = true;
+        private volatile long released;
+
+        @Override
+        public boolean tryLock() {
+            attempts.incrementAndGet();
+            if (!available) {
+                holds.set(0);
+                return false;
+            }
+            holds.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (holds.decrementAndGet() == 0) {
+                released = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void lock() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void lockInterruptibly() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        policy = new SerialAccessRoutePolicy(lock);
+        policy.setLockObtainDelay(50);
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("seda:in").routeId(ROUTE_ID).routePolicy(policy).process(new Processor() {
+                    @Override
+                    public void process(Exchange exchange) throws Exception {
+                        try {
+                            sleep(PROCESSING_TIME);
+                            completed = System.nanoTime();
+                        } finally {
+                            finished = System.nanoTime();
+                        }
+                    }
+                });
+            }
+        });
+        context.start();
+        await(ServiceStatus.Started);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        policy.shutdown();
+        context.stop();
+    }
+
+    private void await(ServiceStatus status) throws InterruptedException {
+        for (int i = 0; i < 100 && context.getRouteStatus(ROUTE_ID) != status; i++) {
+            sleep(20);
+        }
+        assertEquals(status, context.getRouteStatus(ROUTE_ID));
+    }
+
+    private void sendAndAwaitInflight() throws InterruptedException {
+        context.createProducerTemplate().sendBody("seda:in", "message");
+        for (int i = 0; i < 100 && context.getInflightRepository().size(ROUTE_ID) == 0; i++) {
+            sleep(10);
+        }
+        assertEquals(1, context.getInflightRepository().size(ROUTE_ID));
+    }
+
+    @Test
+    public void testDrainOnLeaseLoss() throws Exception {
+        sendAndAwaitInflight();
+        lock.available = false;
+        await(ServiceStatus.Stopped);
+        // Inflight exchange completed before route was stopped.
+        assertTrue(completed > 0);
+        assertEquals(0, context.getInflightRepository().size(ROUTE_ID));
+    }
+
+    @Test
+    public void testReleaseAfterDrain() throws Exception {
+        sendAndAwaitInflight();
+        policy.shutdown();
+        assertEquals(0, lock.holds.get());
+        assertTrue(completed > 0);
+        assertTrue(lock.released >= completed);
+        assertEquals(ServiceStatus.Stopped, context.getRouteStatus(ROUTE_ID));
+    }
+
+    @Test
+    public void testDrainTimeout() throws Exception {
+        policy.setDrainTimeout(50);
+        sendAndAwaitInflight();
+        policy.shutdown();
+        assertEquals(SerialAccessRoutePolicy.State.IDLE, policy.getState());
+        // Lock is kept until exchange which outlived drain timeout completes.
+        for (int i = 0; i < 100 && lock.holds.get() > 0; i++) {
+            sleep(10);
+        }
+        assertEquals(0, lock.holds.get());
+        assertTrue(finished > 0);
+        assertTrue(lock.released >= finished);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        policy.shutdown();
+        context.stop();
+        assertEquals(0, lock.holds.get());
+        context.start();
+        await(ServiceStatus.Started);
+        assertEquals(SerialAccessRoutePolicy.State.LEADING, policy.getState());
+    }
+
+    @Test
+    public void testIdleWithoutRoutes() throws Exception {
+        FakeLock idle = new FakeLock();
+        SerialAccessRoutePolicy policy = new SerialAccessRoutePolicy(idle);
+        policy.setLockObtainDelay(10);
+        sleep(100);
+        assertEquals(SerialAccessRoutePolicy.State.IDLE, policy.getState());
+        assertEquals(0, idle.attempts.get());
+    }
+
+    @Test
+    public void testParkOnRemove() throws Exception {
+        assertEquals(SerialAccessRoutePolicy.State.LEADING, policy.getState());
+        // Policy may start the route again before it is removed.
+        for (int i = 0; i < 10 && context.getRoute(ROUTE_ID) != null; i++) {
+            context.stopRoute(ROUTE_ID);
+            context.removeRoute(ROUTE_ID);
+        }
+        assertNull(context.getRoute(ROUTE_ID));
+        // Lock check in progress parks the policy when it completes.
+        for (int i = 0; i < 100 && (policy.getState() != SerialAccessRoutePolicy.State.IDLE || lock.holds.get() > 0); i++) {
+            sleep(10);
+        }
+        assertEquals(SerialAccessRoutePolicy.State.IDLE, policy.getState());
+        assertEquals(0, lock.holds.get());
+        int attempts = lock.attempts.get();
+        sleep(200);
+        assertEquals(attempts, lock.attempts.get());
+    }
+}
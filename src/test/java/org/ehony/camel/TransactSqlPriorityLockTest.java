@@ -0,0 +1,82 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.*;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+@Ignore
+public class TransactSqlPriorityLockTest
+{
+
+    private static final String LOCK_ID = "testPriorityLock";
+
+    private BasicDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("net.sourceforge.jtds.jdbc.Driver");
+        dataSource.setUrl("jdbc:jtds:sqlserver://localhost/mydb");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("password");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.close();
+    }
+
+    private TransactSqlPriorityLock createLock(int priority, long takeoverDelay) {
+        TransactSqlPriorityLock lock = new TransactSqlPriorityLock(dataSource, LOCK_ID);
+        lock.setPriority(priority);
+        lock.setTakeoverDelay(takeoverDelay);
+        lock.setExpirationTimeout(500);
+        lock.setRetryCount(0);
+        return lock;
+    }
+
+    @Test
+    public void testDeferredTakeover() throws Exception {
+        TransactSqlPriorityLock holder = createLock(0, 0),
+                                preferred = createLock(1, 0),
+                                deferred = createLock(0, 1000);
+        assertTrue(holder.tryLock());
+        sleep(600);
+        // Lease has expired, but not long enough for the less preferred consumer.
+        assertFalse(deferred.tryLock());
+        assertTrue(preferred.tryLock());
+        preferred.unlock();
+        sleep(1100);
+        assertTrue(deferred.tryLock());
+        deferred.unlock();
+    }
+
+    @Test
+    public void testPreemption() throws Exception {
+        TransactSqlPriorityLock holder = createLock(0, 0),
+                                preferred = createLock(1, 0);
+        preferred.setPreemptive(true);
+        assertTrue(holder.tryLock());
+        assertTrue(holder.renew());
+
+        // Preferred consumer cannot take live lease, but preempts its holder.
+        assertFalse(preferred.tryLock());
+        assertFalse(holder.renew());
+        holder.unlock();
+        assertTrue(preferred.tryLock());
+        assertEquals(holder.getFencingToken() + 1, preferred.getFencingToken());
+        // Holders of lower priority do not preempt.
+        holder.setPreemptive(true);
+        assertFalse(holder.tryLock());
+        assertTrue(preferred.renew());
+        preferred.unlock();
+    }
+}
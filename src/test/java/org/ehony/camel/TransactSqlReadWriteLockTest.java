@@ -0,0 +1,99 @@
+/*
+ * ┌──┐
+ * │  │
+ * │Eh│ony
+ * └──┘
+ */
+package org.ehony.camel;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.util.concurrent.*;
+
+import static java.lang.Thread.sleep;
+import static org.junit.Assert.*;
+
+@Ignore
+public class TransactSqlReadWriteLockTest
+{
+
+    private static final String LOCK_ID = "testReadWriteLock";
+
+    private BasicDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("net.sourceforge.jtds.jdbc.Driver");
+        dataSource.setUrl("jdbc:jtds:sqlserver://localhost/mydb");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("password");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.close();
+    }
+
+    private DatabaseReadWriteLock createLock(DataSource dataSource) {
+        DatabaseReadWriteLock lock = new TransactSqlReadWriteLock(dataSource, LOCK_ID);
+        lock.readLock().setRetryCount(0);
+        lock.writeLock().setRetryCount(0);
+        return lock;
+    }
+
+    @Test
+    public void testSharedReaders() {
+        DatabaseReadWriteLock a = createLock(dataSource),
+                              b = createLock(dataSource);
+        assertTrue(a.readLock().tryLock());
+        assertTrue(b.readLock().tryLock());
+        assertFalse(createLock(dataSource).writeLock().tryLock());
+        a.readLock().unlock();
+        b.readLock().unlock();
+    }
+
+    @Test
+    public void testWriterPreference() throws Exception {
+        DatabaseReadWriteLock reader = createLock(dataSource);
+        final DatabaseReadWriteLock writer = createLock(dataSource);
+        writer.writeLock().setRetryDelay(20);
+        assertTrue(reader.readLock().tryLock());
+        // Writer claims the lock while reader holds it.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> obtained = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return writer.writeLock().tryLock(5, TimeUnit.SECONDS);
+                }
+            });
+            sleep(100);
+            // New readers are not admitted while writer waits.
+            assertFalse(createLock(dataSource).readLock().tryLock());
+
+            reader.readLock().unlock();
+            assertTrue(obtained.get(5, TimeUnit.SECONDS));
+            writer.writeLock().unlock();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(reader.readLock().tryLock());
+        reader.readLock().unlock();
+    }
+
+    @Test
+    public void testWithdrawnClaim() {
+        DatabaseReadWriteLock reader = createLock(dataSource),
+                              writer = createLock(dataSource);
+        assertTrue(reader.readLock().tryLock());
+        assertFalse(writer.writeLock().tryLock());
+        // Writer which gave up does not lock out readers.
+        DatabaseReadWriteLock another = createLock(dataSource);
+        assertTrue(another.readLock().tryLock());
+        another.readLock().unlock();
+        reader.readLock().unlock();
+    }
+}